@@ -1,11 +1,39 @@
 package aic.bigdata.importer
 
-import groovy.json.JsonSlurper
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
+import com.mongodb.BasicDBObject
+import com.mongodb.BulkWriteException
+import com.mongodb.DBCollection
 import com.mongodb.DBObject
 import com.mongodb.MongoClient
+import com.mongodb.WriteConcern
 import com.mongodb.util.JSON
 
+/**
+ * Loads newline delimited tweet dumps (plain or gzip) into MongoDB.
+ *
+ * The main thread reads the files and cuts the lines into batches, a pool of
+ * workers parses them and writes each batch as one unordered bulk insert.
+ * Tweets that are already there are rejected by the unique "id" index and
+ * counted as duplicates, so a dump can be loaded again.
+ *
+ * For every file the byte offset up to which all batches are acknowledged is
+ * saved in the checkpoints collection. An interrupted import continues there
+ * when it is started again with the same file; the batches in flight at the
+ * interruption are written again and end up as duplicates. If a batch can't
+ * be written at all, e.g. because the server is gone, the import stops with
+ * an error and the checkpoint stays in front of that batch.
+ *
+ * Usage: Importer [-verify] [-reset] [file...], defaults to tweets.txt
+ *   -verify  reads the part of each file before its checkpoint instead of
+ *            importing, and reports how many lines were skipped and how many
+ *            of their tweets are in the collection
+ *   -reset   ignores and overwrites the checkpoints
+ */
 class Importer {
 
 	private static String file = "tweets.txt"
@@ -13,28 +41,256 @@ class Importer {
 	private static Integer mongoPort = 27017
 	private static String mongoDB = "ImportDB"
 	private static String tweetsColleciton = "ImportTweets"
+	private static String checkpointsCollection = "ImportCheckpoints"
 	private static Integer stepSize = 1000000 // 1.000.000
+	private static Integer batchSize = 5000
+	private static Integer workers = Runtime.runtime.availableProcessors()
+	// acknowledged, so duplicates and errors are reported
+	private static WriteConcern writeConcern = WriteConcern.ACKNOWLEDGED
 
+	private static final int DUPLICATE_KEY = 11000
 
+	private DBCollection col
+	private DBCollection checkpoints
+	private ThreadPoolExecutor pool
+	private AtomicLong inserted = new AtomicLong()
+	private AtomicLong duplicates = new AtomicLong()
+	private AtomicLong errors = new AtomicLong()
+	// a batch could not be written, set by the workers
+	private volatile Exception failure
+	private long lines = 0
+	private long start
 
+	Importer(DBCollection col, DBCollection checkpoints) {
+		this.col = col
+		this.checkpoints = checkpoints
+		// a full queue makes the reader insert the batch itself
+		this.pool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(workers * 2), new ThreadPoolExecutor.CallerRunsPolicy())
+	}
 
 	static main(args) {
+		def options = args.findAll { it.startsWith("-") }
+		def files = args.findAll { !it.startsWith("-") } ?: [file]
 		def mongo = new MongoClient(mongoServer,mongoPort)
 		def db  = mongo.getDB(mongoDB)
 		def col = db.getCollection(tweetsColleciton)
-		def slurp = new JsonSlurper()
-		
-		def f = new File(file)
-		def count = 0
-		f.eachLine {
-			if(!it.isNumber()){
-				DBObject obj = JSON.parse(it)
-				col.insert(obj)
-			}
-			if(count%stepSize==0){
-				println count/stepSize
-			}
-			count++
+		col.createIndex(new BasicDBObject("id", 1), new BasicDBObject([unique: true, name: "uq_id_idx"]))
+
+		def importer = new Importer(col, db.getCollection(checkpointsCollection))
+		try {
+			if ("-verify" in options) {
+				files.each { importer.verifyFile(new File(it)) }
+			} else {
+				files.each { importer.importFile(new File(it), "-reset" in options) }
+			}
+		} finally {
+			importer.close()
+			mongo.close()
+		}
+	}
+
+	void importFile(File f, boolean reset) {
+		start = start ?: System.currentTimeMillis()
+		def progress = new FileProgress(checkpoints, f, reset ? null : readCheckpoint(f))
+		if (progress.offset > 0) {
+			println "importing ${f} from byte ${progress.offset}, line ${progress.lines}"
+		} else {
+			println "importing ${f}"
+		}
+
+		def reader = new OffsetLineReader(f, progress.offset)
+		try {
+			long fileLines = progress.lines
+			def batch = new ArrayList<String>(batchSize)
+			String line
+			while (!failure && (line = reader.readLine()) != null) {
+				fileLines++
+				if (line && !line.isNumber()) {
+					batch << line
+					if (batch.size() >= batchSize) {
+						submit(batch, progress, reader.offset, fileLines)
+						batch = new ArrayList<String>(batchSize)
+					}
+				}
+				if (++lines % stepSize == 0) {
+					progress()
+				}
+			}
+			if (!failure) {
+				// also without lines, so the checkpoint reaches the end of the file
+				submit(batch, progress, reader.offset, fileLines)
+			}
+		} finally {
+			reader.close()
+		}
+		if (failure) {
+			throw new IllegalStateException("import of ${f} stopped, the checkpoint stays in front of the failed batch",
+					failure)
+		}
+	}
+
+	/**
+	 * Reads the lines before the checkpoint and looks up their tweets.
+	 */
+	void verifyFile(File f) {
+		def checkpoint = readCheckpoint(f)
+		if (!checkpoint) {
+			println "${f}: no checkpoint, nothing would be skipped"
+			return
+		}
+
+		long end = checkpoint.get("offset") as long
+		long skipped = 0
+		long tweets = 0
+		long found = 0
+		def ids = new HashSet<Long>()
+		def reader = new OffsetLineReader(f, 0)
+		try {
+			String line
+			while (reader.offset < end && (line = reader.readLine()) != null) {
+				skipped++
+				if (!line || line.isNumber()) {
+					continue
+				}
+				try {
+					def id = ((DBObject) JSON.parse(line)).get("id")
+					if (id instanceof Number) {
+						ids << ((Number) id).longValue()
+						tweets++
+					}
+				} catch (Exception e) {
+					// counted as skipped line only
+				}
+				if (ids.size() >= batchSize) {
+					found += countExisting(ids)
+					ids.clear()
+				}
+			}
+			found += countExisting(ids)
+		} finally {
+			reader.close()
+		}
+
+		println "${f}: ${skipped} lines skipped up to byte ${end} (checkpoint: ${checkpoint.get('lines')} lines), " +
+				"${tweets} tweets, ${found} found in ${tweetsColleciton}"
+	}
+
+	void close() {
+		pool.shutdown()
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS)
+		progress()
+	}
+
+	private DBObject readCheckpoint(File f) {
+		def checkpoint = checkpoints.findOne(new BasicDBObject("_id", f.canonicalPath))
+		if (checkpoint && (checkpoint.get("size") as long) != f.length()) {
+			println "${f} has changed since the last import, ignoring the checkpoint"
+			return null
+		}
+		return checkpoint
+	}
+
+	private long countExisting(Set<Long> ids) {
+		if (!ids) {
+			return 0
+		}
+		return col.count(new BasicDBObject("id", new BasicDBObject('$in', ids)))
+	}
+
+	private void submit(List<String> batch, FileProgress progress, long offset, long fileLines) {
+		long seq = progress.nextBatch()
+		pool.execute {
+			try {
+				insert(batch)
+				// only reached if the batch was written, otherwise it is read again
+				progress.acknowledged(seq, offset, fileLines)
+			} catch (Exception e) {
+				errors.addAndGet(batch.size())
+				println "Error writing batch of ${batch.size()} lines: ${e}"
+				failure = failure ?: e
+			}
+		}
+	}
+
+	private void insert(List<String> batch) {
+		def bulk = col.initializeUnorderedBulkOperation()
+		int parsed = 0
+		batch.each { String line ->
+			try {
+				bulk.insert((DBObject) JSON.parse(line))
+				parsed++
+			} catch (Exception e) {
+				errors.incrementAndGet()
+			}
+		}
+		if (parsed == 0) {
+			return
+		}
+		try {
+			inserted.addAndGet(bulk.execute(writeConcern).insertedCount)
+		} catch (BulkWriteException e) {
+			inserted.addAndGet(e.writeResult.insertedCount)
+			e.writeErrors.each {
+				if (it.code == DUPLICATE_KEY) {
+					duplicates.incrementAndGet()
+				} else {
+					errors.incrementAndGet()
+					println "Error writing tweet: ${it.message}"
+				}
+			}
+		}
+	}
+
+	private void progress() {
+		def seconds = Math.max(1, (System.currentTimeMillis() - start).intdiv(1000))
+		println "${lines} lines, ${inserted.get()} inserted, ${duplicates.get()} duplicates, ${errors.get()} errors, " +
+				"${inserted.get().intdiv(seconds)} docs/s"
+	}
+
+	/**
+	 * Batches are acknowledged out of order by the workers. The checkpoint
+	 * only moves past a batch once it and all batches before it are written.
+	 */
+	private static class FileProgress {
+		DBCollection checkpoints
+		File file
+		long offset = 0
+		long lines = 0
+		private long submitted = 0
+		private long next = 0
+		// batch -> [offset, lines] after it
+		private Map<Long, List<Long>> done = new HashMap<Long, List<Long>>()
+
+		FileProgress(DBCollection checkpoints, File file, DBObject checkpoint) {
+			this.checkpoints = checkpoints
+			this.file = file
+			if (checkpoint) {
+				offset = checkpoint.get("offset") as long
+				lines = checkpoint.get("lines") as long
+			}
+		}
+
+		synchronized long nextBatch() {
+			return submitted++
+		}
+
+		synchronized void acknowledged(long batch, long batchOffset, long batchLines) {
+			done[batch] = [batchOffset, batchLines]
+			if (!done.containsKey(next)) {
+				return
+			}
+			while (done.containsKey(next)) {
+				def position = done.remove(next++)
+				offset = position[0]
+				lines = position[1]
+			}
+			def checkpoint = new BasicDBObject("_id", file.canonicalPath)
+			checkpoint.put("offset", offset)
+			checkpoint.put("lines", lines)
+			checkpoint.put("size", file.length())
+			checkpoint.put("updated", new Date())
+			checkpoints.save(checkpoint)
 		}
 	}
 }
@@ -0,0 +1,99 @@
+package aic.bigdata.importer
+
+import groovy.transform.CompileStatic
+
+import java.util.zip.GZIPInputStream
+
+/**
+ * Reads UTF-8 lines and keeps track of the byte offset after the last line,
+ * so a later run can continue there. For gzip files the offset counts the
+ * uncompressed bytes; those can't be seeked, so they are skipped while
+ * decompressing.
+ */
+@CompileStatic
+class OffsetLineReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 1024 * 1024
+	private static final byte NEWLINE = (byte) 10
+
+	private InputStream input
+	private byte[] buffer = new byte[BUFFER_SIZE]
+	private int pos = 0
+	private int limit = 0
+	private long offset
+	private ByteArrayOutputStream line = new ByteArrayOutputStream(8192)
+
+	OffsetLineReader(File f, long start) {
+		def fin = new FileInputStream(f)
+		if (isGzip(f)) {
+			input = new GZIPInputStream(fin, BUFFER_SIZE)
+			long skipped = 0
+			while (skipped < start) {
+				long n = input.skip(start - skipped)
+				if (n <= 0) {
+					break
+				}
+				skipped += n
+			}
+			offset = skipped
+		} else {
+			fin.channel.position(start)
+			input = fin
+			offset = Math.min(start, f.length())
+		}
+	}
+
+	/**
+	 * @return the next line without the line break, null at the end
+	 */
+	String readLine() {
+		line.reset()
+		while (true) {
+			if (pos == limit) {
+				limit = input.read(buffer)
+				pos = 0
+				if (limit <= 0) {
+					limit = 0
+					return line.size() > 0 ? decode() : null
+				}
+			}
+			int start = pos
+			while (pos < limit && buffer[pos] != NEWLINE) {
+				pos++
+			}
+			line.write(buffer, start, pos - start)
+			offset += pos - start
+			if (pos < limit) {
+				// the line break
+				pos++
+				offset++
+				return decode()
+			}
+		}
+	}
+
+	/**
+	 * @return byte offset right after the last line returned
+	 */
+	long getOffset() {
+		return offset
+	}
+
+	void close() {
+		input.close()
+	}
+
+	private String decode() {
+		def s = line.toString("UTF-8")
+		return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s
+	}
+
+	private static boolean isGzip(File f) {
+		def header = new FileInputStream(f)
+		try {
+			return header.read() == 0x1f && header.read() == 0x8b
+		} finally {
+			header.close()
+		}
+	}
+}
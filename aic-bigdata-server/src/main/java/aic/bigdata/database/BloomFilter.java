@@ -0,0 +1,139 @@
+package aic.bigdata.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Bloom filter over long keys (e.g. tweet ids). mightContain() never returns
+ * false for a key that was put, but may return true for a key that was not,
+ * with roughly the configured false positive rate as long as no more than the
+ * expected number of keys are put.
+ *
+ * The bits are sized for the expected keys and rate, but never exceed the
+ * given memory budget; a capped filter has a higher false positive rate. The
+ * k bit positions are derived from two hashes (Kirsch/Mitzenmacher). Thread
+ * safe.
+ */
+public class BloomFilter {
+
+	private static final long FILE_MAGIC = 0x426c6f6f6d310aL;
+
+	private final long[] bits;
+	private final long bitCount;
+	private final int hashes;
+	private long size = 0;
+
+	/**
+	 * @param expectedKeys
+	 *            number of keys the filter is sized for
+	 * @param falsePositiveRate
+	 *            e.g. 0.01
+	 * @param maxBytes
+	 *            upper bound for the bit array
+	 */
+	public BloomFilter(long expectedKeys, double falsePositiveRate, long maxBytes) {
+		long n = Math.max(1, expectedKeys);
+		long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		m = Math.max(64, Math.min(m, maxBytes * 8));
+		this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64)];
+		this.bitCount = 64L * bits.length;
+		this.hashes = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+	}
+
+	private BloomFilter(long[] bits, int hashes, long size) {
+		this.bits = bits;
+		this.bitCount = 64L * bits.length;
+		this.hashes = hashes;
+		this.size = size;
+	}
+
+	public synchronized void put(long key) {
+		long h1 = mix(key);
+		long h2 = mix(h1) | 1;
+		for (int i = 0; i < hashes; i++) {
+			long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+		size++;
+	}
+
+	public synchronized boolean mightContain(long key) {
+		long h1 = mix(key);
+		long h2 = mix(h1) | 1;
+		for (int i = 0; i < hashes; i++) {
+			long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of put() calls, duplicates included
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * @return size of the bit array in bytes
+	 */
+	public long memoryFootprint() {
+		return 8L * bits.length;
+	}
+
+	/**
+	 * @return the expected false positive rate for the keys put so far
+	 */
+	public synchronized double expectedFalsePositiveRate() {
+		return Math.pow(1 - Math.exp(-(double) hashes * size / bitCount), hashes);
+	}
+
+	public synchronized void writeTo(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeLong(FILE_MAGIC);
+			out.writeInt(bits.length);
+			out.writeInt(hashes);
+			out.writeLong(size);
+			for (long word : bits) {
+				out.writeLong(word);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static BloomFilter readFrom(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readLong() != FILE_MAGIC)
+				throw new IOException("not a bloom filter file: " + file);
+			long[] bits = new long[in.readInt()];
+			int hashes = in.readInt();
+			long size = in.readLong();
+			for (int i = 0; i < bits.length; i++) {
+				bits[i] = in.readLong();
+			}
+			return new BloomFilter(bits, hashes, size);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static long mix(long key) {
+		// murmur3 fmix64, see LongLongMap.hash
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
@@ -0,0 +1,320 @@
+package aic.bigdata.database;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import twitter4j.GeoLocation;
+import twitter4j.HashtagEntity;
+import twitter4j.MediaEntity;
+import twitter4j.Place;
+import twitter4j.RateLimitStatus;
+import twitter4j.Scopes;
+import twitter4j.Status;
+import twitter4j.SymbolEntity;
+import twitter4j.URLEntity;
+import twitter4j.User;
+import twitter4j.UserMentionEntity;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Status read directly from a tweet document, instead of serializing the
+ * document to JSON and parsing it again with TwitterObjectFactory. Fields are
+ * only converted when they are read, the user and the retweeted status on
+ * first access.
+ *
+ * Values follow twitter4j: missing numbers are -1, missing flags false, texts
+ * are HTML unescaped. Entities, place, geo location and scopes are not
+ * decoded and always empty. FIELDS is a projection of everything that is
+ * decoded.
+ */
+public class BsonStatus implements Status {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Projection of the fields read by BsonStatus and BsonUser.
+	 */
+	public static final DBObject FIELDS = new BasicDBObject();
+	static {
+		String[] status = { "id", "text", "source", "created_at", "truncated", "in_reply_to_status_id",
+				"in_reply_to_user_id", "in_reply_to_screen_name", "favorited", "retweeted", "favorite_count",
+				"retweet_count", "possibly_sensitive", "contributors", "lang", "user" };
+		for (String field : status) {
+			FIELDS.put(field, 1);
+			FIELDS.put("retweeted_status." + field, 1);
+		}
+	}
+
+	private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return format;
+		}
+	};
+
+	private final DBObject o;
+	private User user;
+	private Status retweetedStatus;
+
+	public BsonStatus(DBObject o) {
+		this.o = o;
+	}
+
+	@Override
+	public long getId() {
+		return getLong(o, "id");
+	}
+
+	@Override
+	public String getText() {
+		return unescape(getString(o, "text"));
+	}
+
+	@Override
+	public String getSource() {
+		return unescape(getString(o, "source"));
+	}
+
+	@Override
+	public Date getCreatedAt() {
+		return getDate(o, "created_at");
+	}
+
+	@Override
+	public boolean isTruncated() {
+		return getBoolean(o, "truncated");
+	}
+
+	@Override
+	public long getInReplyToStatusId() {
+		return getLong(o, "in_reply_to_status_id");
+	}
+
+	@Override
+	public long getInReplyToUserId() {
+		return getLong(o, "in_reply_to_user_id");
+	}
+
+	@Override
+	public String getInReplyToScreenName() {
+		return unescape(getString(o, "in_reply_to_screen_name"));
+	}
+
+	@Override
+	public GeoLocation getGeoLocation() {
+		return null;
+	}
+
+	@Override
+	public Place getPlace() {
+		return null;
+	}
+
+	@Override
+	public boolean isFavorited() {
+		return getBoolean(o, "favorited");
+	}
+
+	@Override
+	public boolean isRetweeted() {
+		return getBoolean(o, "retweeted");
+	}
+
+	@Override
+	public int getFavoriteCount() {
+		return getInt(o, "favorite_count");
+	}
+
+	@Override
+	public User getUser() {
+		if (user == null) {
+			Object u = o.get("user");
+			if (u instanceof DBObject)
+				user = new BsonUser((DBObject) u);
+		}
+		return user;
+	}
+
+	@Override
+	public boolean isRetweet() {
+		return getRetweetedStatus() != null;
+	}
+
+	@Override
+	public Status getRetweetedStatus() {
+		if (retweetedStatus == null) {
+			Object rt = o.get("retweeted_status");
+			if (rt instanceof DBObject)
+				retweetedStatus = new BsonStatus((DBObject) rt);
+		}
+		return retweetedStatus;
+	}
+
+	@Override
+	public long[] getContributors() {
+		Object c = o.get("contributors");
+		if (!(c instanceof BasicDBList))
+			return new long[0];
+		BasicDBList list = (BasicDBList) c;
+		long[] ids = new long[list.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = toLong(list.get(i));
+		}
+		return ids;
+	}
+
+	@Override
+	public int getRetweetCount() {
+		return (int) getLong(o, "retweet_count");
+	}
+
+	@Override
+	public boolean isRetweetedByMe() {
+		return false;
+	}
+
+	@Override
+	public long getCurrentUserRetweetId() {
+		return -1L;
+	}
+
+	@Override
+	public boolean isPossiblySensitive() {
+		return getBoolean(o, "possibly_sensitive");
+	}
+
+	@Override
+	public String getLang() {
+		return unescape(getString(o, "lang"));
+	}
+
+	@Override
+	public Scopes getScopes() {
+		return null;
+	}
+
+	@Override
+	public UserMentionEntity[] getUserMentionEntities() {
+		return new UserMentionEntity[0];
+	}
+
+	@Override
+	public URLEntity[] getURLEntities() {
+		return new URLEntity[0];
+	}
+
+	@Override
+	public HashtagEntity[] getHashtagEntities() {
+		return new HashtagEntity[0];
+	}
+
+	@Override
+	public MediaEntity[] getMediaEntities() {
+		return new MediaEntity[0];
+	}
+
+	@Override
+	public SymbolEntity[] getSymbolEntities() {
+		return new SymbolEntity[0];
+	}
+
+	@Override
+	public RateLimitStatus getRateLimitStatus() {
+		return null;
+	}
+
+	@Override
+	public int getAccessLevel() {
+		return 0;
+	}
+
+	@Override
+	public int compareTo(Status that) {
+		long delta = getId() - that.getId();
+		if (delta < Integer.MIN_VALUE)
+			return Integer.MIN_VALUE;
+		if (delta > Integer.MAX_VALUE)
+			return Integer.MAX_VALUE;
+		return (int) delta;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Status && ((Status) obj).getId() == getId();
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) getId();
+	}
+
+	@Override
+	public String toString() {
+		return o.toString();
+	}
+
+	static String getString(DBObject o, String field) {
+		Object v = o.get(field);
+		return v == null ? null : v.toString();
+	}
+
+	static long getLong(DBObject o, String field) {
+		return toLong(o.get(field));
+	}
+
+	static int getInt(DBObject o, String field) {
+		Object v = o.get(field);
+		if (v instanceof Number)
+			return ((Number) v).intValue();
+		try {
+			return v == null ? -1 : Integer.parseInt(v.toString());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	static boolean getBoolean(DBObject o, String field) {
+		Object v = o.get(field);
+		if (v instanceof Boolean)
+			return (Boolean) v;
+		return v != null && "true".equals(v.toString());
+	}
+
+	static Date getDate(DBObject o, String field) {
+		String v = getString(o, field);
+		if (v == null)
+			return null;
+		try {
+			return DATE_FORMAT.get().parse(v);
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	private static long toLong(Object v) {
+		if (v instanceof Number)
+			return ((Number) v).longValue();
+		try {
+			return v == null ? -1 : Long.parseLong(v.toString());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Twitter escapes only these three characters in texts.
+	 */
+	static String unescape(String s) {
+		if (s == null || s.indexOf('&') == -1)
+			return s;
+		return s.replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+	}
+}
@@ -0,0 +1,318 @@
+package aic.bigdata.database;
+
+import java.util.Date;
+
+import twitter4j.RateLimitStatus;
+import twitter4j.Status;
+import twitter4j.URLEntity;
+import twitter4j.User;
+
+import com.mongodb.DBObject;
+
+/**
+ * User read directly from the "user" object of a tweet document, see
+ * BsonStatus. The derived image and banner urls are built like twitter4j
+ * does. Url entities and the embedded status are not decoded.
+ */
+public class BsonUser implements User {
+
+	private static final long serialVersionUID = 1L;
+
+	private final DBObject o;
+
+	public BsonUser(DBObject o) {
+		this.o = o;
+	}
+
+	@Override
+	public long getId() {
+		return BsonStatus.getLong(o, "id");
+	}
+
+	@Override
+	public String getName() {
+		return BsonStatus.getString(o, "name");
+	}
+
+	@Override
+	public String getScreenName() {
+		return BsonStatus.getString(o, "screen_name");
+	}
+
+	@Override
+	public String getLocation() {
+		return BsonStatus.getString(o, "location");
+	}
+
+	@Override
+	public String getDescription() {
+		return BsonStatus.unescape(BsonStatus.getString(o, "description"));
+	}
+
+	@Override
+	public String getProfileImageURL() {
+		return BsonStatus.getString(o, "profile_image_url");
+	}
+
+	@Override
+	public String getProfileImageURLHttps() {
+		return BsonStatus.getString(o, "profile_image_url_https");
+	}
+
+	@Override
+	public String getURL() {
+		return BsonStatus.getString(o, "url");
+	}
+
+	@Override
+	public String getProfileBackgroundColor() {
+		return BsonStatus.getString(o, "profile_background_color");
+	}
+
+	@Override
+	public String getProfileTextColor() {
+		return BsonStatus.getString(o, "profile_text_color");
+	}
+
+	@Override
+	public String getProfileLinkColor() {
+		return BsonStatus.getString(o, "profile_link_color");
+	}
+
+	@Override
+	public String getProfileSidebarFillColor() {
+		return BsonStatus.getString(o, "profile_sidebar_fill_color");
+	}
+
+	@Override
+	public String getProfileSidebarBorderColor() {
+		return BsonStatus.getString(o, "profile_sidebar_border_color");
+	}
+
+	@Override
+	public String getTimeZone() {
+		return BsonStatus.getString(o, "time_zone");
+	}
+
+	@Override
+	public String getProfileBackgroundImageURL() {
+		return BsonStatus.getString(o, "profile_background_image_url");
+	}
+
+	@Override
+	public String getProfileBackgroundImageUrlHttps() {
+		return BsonStatus.getString(o, "profile_background_image_url_https");
+	}
+
+	@Override
+	public String getLang() {
+		return BsonStatus.getString(o, "lang");
+	}
+
+	@Override
+	public boolean isContributorsEnabled() {
+		return BsonStatus.getBoolean(o, "contributors_enabled");
+	}
+
+	@Override
+	public boolean isProtected() {
+		return BsonStatus.getBoolean(o, "protected");
+	}
+
+	@Override
+	public boolean isProfileUseBackgroundImage() {
+		return BsonStatus.getBoolean(o, "profile_use_background_image");
+	}
+
+	@Override
+	public boolean isShowAllInlineMedia() {
+		return BsonStatus.getBoolean(o, "show_all_inline_media");
+	}
+
+	@Override
+	public boolean isProfileBackgroundTiled() {
+		return BsonStatus.getBoolean(o, "profile_background_tile");
+	}
+
+	@Override
+	public boolean isGeoEnabled() {
+		return BsonStatus.getBoolean(o, "geo_enabled");
+	}
+
+	@Override
+	public boolean isVerified() {
+		return BsonStatus.getBoolean(o, "verified");
+	}
+
+	@Override
+	public boolean isTranslator() {
+		return BsonStatus.getBoolean(o, "is_translator");
+	}
+
+	@Override
+	public boolean isFollowRequestSent() {
+		return BsonStatus.getBoolean(o, "follow_request_sent");
+	}
+
+	@Override
+	public int getFollowersCount() {
+		return BsonStatus.getInt(o, "followers_count");
+	}
+
+	@Override
+	public int getFriendsCount() {
+		return BsonStatus.getInt(o, "friends_count");
+	}
+
+	@Override
+	public int getFavouritesCount() {
+		return BsonStatus.getInt(o, "favourites_count");
+	}
+
+	@Override
+	public int getUtcOffset() {
+		return BsonStatus.getInt(o, "utc_offset");
+	}
+
+	@Override
+	public int getStatusesCount() {
+		return BsonStatus.getInt(o, "statuses_count");
+	}
+
+	@Override
+	public int getListedCount() {
+		return BsonStatus.getInt(o, "listed_count");
+	}
+
+	@Override
+	public String getBiggerProfileImageURL() {
+		return toResizedURL(getProfileImageURL(), "_bigger");
+	}
+
+	@Override
+	public String getMiniProfileImageURL() {
+		return toResizedURL(getProfileImageURL(), "_mini");
+	}
+
+	@Override
+	public String getOriginalProfileImageURL() {
+		return toResizedURL(getProfileImageURL(), "");
+	}
+
+	@Override
+	public String getBiggerProfileImageURLHttps() {
+		return toResizedURL(getProfileImageURLHttps(), "_bigger");
+	}
+
+	@Override
+	public String getMiniProfileImageURLHttps() {
+		return toResizedURL(getProfileImageURLHttps(), "_mini");
+	}
+
+	@Override
+	public String getOriginalProfileImageURLHttps() {
+		return toResizedURL(getProfileImageURLHttps(), "");
+	}
+
+	@Override
+	public String getProfileBannerURL() {
+		return toBannerURL("/web");
+	}
+
+	@Override
+	public String getProfileBannerRetinaURL() {
+		return toBannerURL("/web_retina");
+	}
+
+	@Override
+	public String getProfileBannerIPadURL() {
+		return toBannerURL("/ipad");
+	}
+
+	@Override
+	public String getProfileBannerIPadRetinaURL() {
+		return toBannerURL("/ipad_retina");
+	}
+
+	@Override
+	public String getProfileBannerMobileURL() {
+		return toBannerURL("/mobile");
+	}
+
+	@Override
+	public String getProfileBannerMobileRetinaURL() {
+		return toBannerURL("/mobile_retina");
+	}
+
+	@Override
+	public Date getCreatedAt() {
+		return BsonStatus.getDate(o, "created_at");
+	}
+
+	@Override
+	public Status getStatus() {
+		return null;
+	}
+
+	@Override
+	public URLEntity[] getDescriptionURLEntities() {
+		return new URLEntity[0];
+	}
+
+	@Override
+	public URLEntity getURLEntity() {
+		return null;
+	}
+
+	@Override
+	public RateLimitStatus getRateLimitStatus() {
+		return null;
+	}
+
+	@Override
+	public int getAccessLevel() {
+		return 0;
+	}
+
+	@Override
+	public int compareTo(User that) {
+		return (int) (getId() - that.getId());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof User && ((User) obj).getId() == getId();
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) getId();
+	}
+
+	@Override
+	public String toString() {
+		return o.toString();
+	}
+
+	/**
+	 * Replaces the size suffix of a profile image url, e.g. "_normal".
+	 */
+	private static String toResizedURL(String url, String size) {
+		if (url == null)
+			return null;
+		int suffix = url.lastIndexOf("_");
+		int extension = url.lastIndexOf(".");
+		int slash = url.lastIndexOf("/");
+		if (suffix < slash)
+			return url;
+		String resized = url.substring(0, suffix) + size;
+		if (extension > slash)
+			resized += url.substring(extension);
+		return resized;
+	}
+
+	private String toBannerURL(String size) {
+		String url = BsonStatus.getString(o, "profile_banner_url");
+		return url == null ? null : url + size;
+	}
+}
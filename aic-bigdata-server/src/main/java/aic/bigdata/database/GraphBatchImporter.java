@@ -0,0 +1,107 @@
+package aic.bigdata.database;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.index.lucene.unsafe.batchinsert.LuceneBatchInserterIndexProvider;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserterIndex;
+import org.neo4j.unsafe.batchinsert.BatchInserterIndexProvider;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+import twitter4j.User;
+import aic.bigdata.server.ServerConfig;
+
+/**
+ * Offline bulk import of users and retweets into an empty Neo4J store, using
+ * the BatchInserter. User nodes are written as they are seen, retweets are
+ * counted in memory and written with their final count on finish(). Both are
+ * kept in the unboxed maps GraphDatabase uses for its cache. The resulting
+ * graph and legacy indexes are the same as the ones GraphDatabase creates.
+ *
+ * GraphDatabase must not be open on the same store at the same time.
+ */
+public class GraphBatchImporter {
+
+	private static final Label USER = DynamicLabel.label("user");
+	private static final RelationshipType RETWEETS = DynamicRelationshipType.withName("retweets");
+
+	private BatchInserter inserter;
+	private BatchInserterIndexProvider indexProvider;
+	private BatchInserterIndex userIndex;
+	private BatchInserterIndex retweetsIndex;
+
+	// userId -> nodeId
+	private LongLongMap userNodes = new LongLongMap();
+	// (retweeterId, originalId) -> count
+	private LongPairLongMap retweets = new LongPairLongMap();
+
+	public GraphBatchImporter(ServerConfig config) {
+		String name = config.getNeo4JDbName();
+		if (new File(name, "neostore").exists()) {
+			throw new IllegalStateException("batch import needs an empty database, " + name + " already exists");
+		}
+
+		inserter = BatchInserters.inserter(name);
+		indexProvider = new LuceneBatchInserterIndexProvider(inserter);
+		Map<String, String> exact = MapUtil.stringMap("type", "exact");
+		userIndex = indexProvider.nodeIndex("users", exact);
+		indexProvider.nodeIndex("topics", exact);
+		retweetsIndex = indexProvider.relationshipIndex("retweets", exact);
+	}
+
+	public void addUser(User user) {
+		if (userNodes.containsKey(user.getId()))
+			return;
+
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("userId", user.getId());
+		props.put("userName", user.getName());
+		props.put("friendsCount", user.getFriendsCount());
+		props.put("followersCount", user.getFollowersCount());
+
+		long node = inserter.createNode(props, USER);
+		userIndex.add(node, MapUtil.map("userId", user.getId()));
+		userNodes.put(user.getId(), node);
+	}
+
+	public void addRetweetsRelationship(User retweeter, User original) {
+		long count = retweets.get(retweeter.getId(), original.getId());
+		retweets.put(retweeter.getId(), original.getId(), count == -1 ? 1 : count + 1);
+	}
+
+	public int getUserCount() {
+		return userNodes.size();
+	}
+
+	/**
+	 * Writes all retweet relationships, flushes the indexes and shuts the
+	 * store down.
+	 */
+	public void finish() {
+		int relationships = retweets.size();
+		retweets.forEach(new LongPairLongMap.EntryVisitor() {
+			@Override
+			public void visit(long retweeterId, long originalId, long count) {
+				long rel = inserter.createRelationship(userNodes.get(retweeterId), userNodes.get(originalId), RETWEETS,
+						MapUtil.map("count", count));
+				retweetsIndex.add(rel, MapUtil.map("retweeterId", retweeterId));
+			}
+		});
+		retweets.clear();
+
+		System.out.println("GraphBatchImporter: " + userNodes.size() + " users, " + relationships
+				+ " retweets relationships written");
+
+		userIndex.flush();
+		retweetsIndex.flush();
+		indexProvider.shutdown();
+		inserter.shutdown();
+	}
+}
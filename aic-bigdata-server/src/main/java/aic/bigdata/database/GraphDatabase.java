@@ -1,23 +1,29 @@
 package aic.bigdata.database;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.neo4j.cypher.javacompat.ExecutionEngine;
 import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.graphdb.index.Index;
-import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.tooling.GlobalGraphOperations;
 
 import twitter4j.User;
 import aic.bigdata.extraction.ServerConfigBuilder;
@@ -27,7 +33,7 @@ public class GraphDatabase {
 
 	private static GraphDatabase instance;
 	
-	public static GraphDatabase getInstance(){
+	public static synchronized GraphDatabase getInstance(){
 		
 		if(instance == null){
 			ServerConfigBuilder b = new ServerConfigBuilder();
@@ -44,8 +50,25 @@ public class GraphDatabase {
 	private ServerConfig config;
 	private ExecutionEngine cypherEngine;
 
+	private static final Label USER = DynamicLabel.label("user");
+	private static final Label TOPIC = DynamicLabel.label("topic");
+	private static final RelationshipType RETWEETS = DynamicRelationshipType.withName("retweets");
+	private static final RelationshipType MENTIONS = DynamicRelationshipType.withName("mentions");
+
+	// in-memory copies of the legacy indexes, kept in sync on every write
+	// userId -> nodeId
+	private LongLongMap userNodes = new LongLongMap();
+	// topic -> nodeId
+	private Map<String, Long> topicNodes = new HashMap<String, Long>();
+	// (retweeterId, originalId) -> relationshipId
+	private LongPairLongMap retweetRelationships = new LongPairLongMap();
+
+	// topic -> number of users mentioning it, dropped after mentioningCountsTtl
+	private Map<String, Long> mentioningCounts = new HashMap<String, Long>();
+	private long mentioningCountsLoaded = 0;
+
+	private List<GraphWriteBatch> writeBatches = new ArrayList<GraphWriteBatch>();
 
-	final static private String createRetweetsRelationshipQ = "MATCH (a:user),(b:user) WHERE a.userId = {aUserId} AND b.userId = {bUserId} CREATE (a)-[r:retweets { count: 1 } ]->(b) RETURN r";
 //	final static private String getRetweetsCountQ = "MATCH (a:user)-[r:retweets]->(b:user) WHERE a.userId = {aUserId} AND b.userId = {bUserId} RETURN r.count";
 //	final static private String updateRetweetsCountQ = "MATCH (a:user)-[r:retweets]->(b:user) WHERE a.userId = {aUserId} AND b.userId = {bUserId} SET r.count = r.count + 1 RETURN r.count";
 
@@ -90,6 +113,125 @@ public class GraphDatabase {
 		}
 
 		cypherEngine = new ExecutionEngine(graphDb);
+
+		loadCache();
+	}
+
+	/**
+	 * Reads all user and topic nodes and retweets relationships once, so
+	 * existence checks and count updates do not need index lookups.
+	 */
+	private void loadCache() {
+		long time = System.currentTimeMillis();
+
+		try (Transaction tx = graphDb.beginTx()) {
+			GlobalGraphOperations ops = GlobalGraphOperations.at(graphDb);
+			for (Node topic : ops.getAllNodesWithLabel(TOPIC)) {
+				topicNodes.put((String) topic.getProperty("topic"), topic.getId());
+			}
+			for (Node user : ops.getAllNodesWithLabel(USER)) {
+				long userId = (Long) user.getProperty("userId");
+				userNodes.put(userId, user.getId());
+				for (Relationship r : user.getRelationships(Direction.OUTGOING, RETWEETS)) {
+					long originalId = (Long) r.getEndNode().getProperty("userId");
+					retweetRelationships.put(userId, originalId, r.getId());
+				}
+			}
+			tx.success();
+		}
+
+		System.out.println("GraphDatabase: cached " + userNodes.size() + " users, " + topicNodes.size()
+				+ " topics and " + retweetRelationships.size() + " retweets in "
+				+ (System.currentTimeMillis() - time) + "ms, " + getCacheFootprint() / (1024 * 1024) + " MB");
+	}
+
+	private synchronized void reloadCache() {
+		userNodes.clear();
+		topicNodes.clear();
+		retweetRelationships.clear();
+		mentioningCounts.clear();
+		loadCache();
+	}
+
+	/**
+	 * Creates a write-behind batch with the size and flush interval from
+	 * neo4j.properties.
+	 */
+	public GraphWriteBatch newWriteBatch() {
+		return newWriteBatch(config.getNeo4JBatchSize(), config.getNeo4JBatchFlushInterval());
+	}
+
+	public synchronized GraphWriteBatch newWriteBatch(int batchSize, long flushIntervalMs) {
+		GraphWriteBatch batch = new GraphWriteBatch(this, batchSize, flushIntervalMs);
+		writeBatches.add(batch);
+		return batch;
+	}
+
+	synchronized void removeWriteBatch(GraphWriteBatch batch) {
+		writeBatches.remove(batch);
+	}
+
+	/**
+	 * Flushes all open write batches, called on shutdown.
+	 */
+	public void flushWriteBatches() {
+		List<GraphWriteBatch> batches;
+		synchronized (this) {
+			batches = new ArrayList<GraphWriteBatch>(writeBatches);
+		}
+		for (GraphWriteBatch batch : batches) {
+			batch.flush();
+		}
+	}
+
+	/**
+	 * Runs the queued writes of a batch in one transaction. The add methods
+	 * open nested transactions, which Neo4J folds into this one. If the
+	 * transaction fails, the writes are repeated one transaction each, so a
+	 * bad write only loses itself and the later writes of the batch that
+	 * depend on the nodes it created.
+	 * 
+	 * @return false, if some writes failed
+	 */
+	synchronized boolean applyBatch(List<Runnable> ops) {
+		try (Transaction tx = graphDb.beginTx()) {
+			for (Runnable op : ops) {
+				op.run();
+			}
+			tx.success();
+			return true;
+		} catch (RuntimeException e) {
+			System.err.println("GraphDatabase: Failed to write batch of " + ops.size()
+					+ " operations, writing them one by one");
+			e.printStackTrace();
+		}
+
+		// the cache may contain nodes that were rolled back
+		reloadCache();
+		int failed = 0;
+		for (Runnable op : ops) {
+			try (Transaction tx = graphDb.beginTx()) {
+				op.run();
+				tx.success();
+			} catch (RuntimeException e) {
+				failed++;
+				e.printStackTrace();
+			}
+		}
+		if (failed > 0) {
+			System.err.println("GraphDatabase: " + failed + " of " + ops.size() + " operations failed");
+			// once for all failed writes, every reload reads the whole graph
+			reloadCache();
+		}
+		return failed == 0;
+	}
+
+	/**
+	 * Heap used by the user and retweets caches in bytes. A million users need
+	 * about 32 MB, a million retweets relationships about 48 MB.
+	 */
+	public synchronized long getCacheFootprint() {
+		return userNodes.memoryFootprint() + retweetRelationships.memoryFootprint();
 	}
 
 	private void createDb(String name) throws IOException {
@@ -99,6 +241,7 @@ public class GraphDatabase {
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
 			public void run() {
+				flushWriteBatches();
 				graphDb.shutdown();
 			}
 		});
@@ -150,16 +293,61 @@ public class GraphDatabase {
 
 
 
-	public void addTopic(String topic) {
+	/**
+	 * Number of users mentioning the topic, the same as
+	 * getUsersMentioning(topic).size() but read from the degree of the topic
+	 * node. Counts are cached for neo4j.mentionsCountTtlMs and updated when
+	 * mentions relationships are created.
+	 */
+	public synchronized long getUsersMentioningCount(String topic) {
+		long now = System.currentTimeMillis();
+		if (now - mentioningCountsLoaded > config.getNeo4JMentionsCountTtl()) {
+			mentioningCounts.clear();
+			mentioningCountsLoaded = now;
+		}
+
+		String key = topic.toLowerCase();
+		Long count = mentioningCounts.get(key);
+		if (count == null) {
+			Long topicNodeId = topicNodes.get(key);
+			if (topicNodeId == null) {
+				count = 0L;
+			} else {
+				try (Transaction tx = graphDb.beginTx()) {
+					count = (long) graphDb.getNodeById(topicNodeId).getDegree(MENTIONS, Direction.INCOMING);
+					tx.success();
+				}
+			}
+			mentioningCounts.put(key, count);
+		}
+		return count;
+	}
+
+	/**
+	 * Drops all cached mentioning counts, e.g. after an analysis run.
+	 */
+	public synchronized void invalidateMentioningCounts() {
+		mentioningCounts.clear();
+	}
+
+	private void addMentioningCount(String topic, long created) {
+		String key = topic.toLowerCase();
+		Long count = mentioningCounts.get(key);
+		if (count != null)
+			mentioningCounts.put(key, count + created);
+	}
+
+	public synchronized void addTopic(String topic) {
 		if (!nodeForTopicExists(topic)) {
 			try (Transaction tx = graphDb.beginTx()) {
 				Node topicNode = graphDb.createNode();
 				topicNode.setProperty("topic", topic.toLowerCase());
-				topicNode.addLabel(DynamicLabel.label("topic"));
+				topicNode.addLabel(TOPIC);
 
 				topicIndex.add(topicNode, "topic", topicNode.getProperty("topic"));
 
 				tx.success();
+				topicNodes.put(topic.toLowerCase(), topicNode.getId());
 			}
 		}
 		else {
@@ -167,56 +355,19 @@ public class GraphDatabase {
 		}
 	}
 	
-	private boolean nodeForTopicExists(String topic) {
-		boolean exists = false;
-
-		try (Transaction tx = graphDb.beginTx()) {
-			IndexHits<Node> hits = topicIndex.get("topic", topic.toLowerCase());
-
-			exists = hits.size() == 1;
-			tx.success();
-		}
-
-		return exists;
+	private synchronized boolean nodeForTopicExists(String topic) {
+		return topicNodes.containsKey(topic.toLowerCase());
 	}
 
-	private boolean nodeForUserExists(long userId) {
-		boolean exists = false;
-
-		try (Transaction tx = graphDb.beginTx()) {
-			IndexHits<Node> hits = userIndex.get("userId", userId);
-
-			exists = hits.size() == 1;
-			tx.success();
-		}
-
-		return exists;
-	}
-	
-	private Relationship getRetweetsRelationship(long retweeterId, long originalId) {
-		Relationship found = null;
-
-		try (Transaction tx = graphDb.beginTx()) {
-			IndexHits<Relationship> hits = retweetsIndex.get("retweeterId", retweeterId);
-
-			for (Relationship r: hits) {
-				Node endNode = r.getEndNode();
-				Long endId = (Long) endNode.getProperty("userId");
-				if (endId.equals(originalId)) {
-					found = r;
-				}
-			}
-			tx.success();
-		}
-
-		return found;
+	private synchronized boolean nodeForUserExists(long userId) {
+		return userNodes.containsKey(userId);
 	}
 
 	private boolean nodeForUserExists(User user) {
 		return this.nodeForUserExists(user.getId());
 	}
 	
-	public void addMentionsRelationship(long userId, String topic) {
+	public synchronized void addMentionsRelationship(long userId, String topic) {
 		
 		if (!nodeForUserExists(userId) && !nodeForTopicExists(topic)) {
 			System.err.println("TweetToNeo4JHandler: Cannot create relationship (user " +userId + ")-[mentions]->(topic " + topic + ") because either the user or the topic does not exist in the graph");
@@ -232,6 +383,8 @@ public class GraphDatabase {
 		// why do we need a Transaction object we then ignore? ask the neo4j docs, good luck!
 		try (Transaction ignoreMe = graphDb.beginTx()) {
 			result = cypherEngine.execute(getMentionsCountQ, params);
+			// inside a write batch this is a nested transaction, which would roll back the batch otherwise
+			ignoreMe.success();
 		}
 
 		try (Transaction tx = graphDb.beginTx()) {
@@ -248,7 +401,7 @@ public class GraphDatabase {
 				iterator = result.iterator();
 				if (iterator.hasNext()) {
 					Map<String, Object> updatedMap = iterator.next();
-					System.out.println("TweetToNeo4JHandler: Updating relationship (user " + userId + ")-[mentions]->(topic " + topic + ") from count = " + map.get("r.count") + " to count = " + updatedMap.get("r.count"));
+					//System.out.println("TweetToNeo4JHandler: Updating relationship (user " + userId + ")-[mentions]->(topic " + topic + ") from count = " + map.get("r.count") + " to count = " + updatedMap.get("r.count"));
 				}
 				else {
 					System.err.println("TweetToNeo4JHandler: Could not update relationship (user " + userId + ")-[mentions]->(topic " + topic + ") in Neo4J DB");
@@ -258,8 +411,9 @@ public class GraphDatabase {
 			else {
 				result = cypherEngine.execute(createMentionsRelationshipQ, params);
 				int numCreated = result.getQueryStatistics().getRelationshipsCreated();
+				addMentioningCount(topic, numCreated);
 				if (numCreated == 1) {
-					System.out.println("TweetToNeo4JHandler: Created relationship (user " + userId + ")-[mentions]->(topic " + topic + ")");
+					//System.out.println("TweetToNeo4JHandler: Created relationship (user " + userId + ")-[mentions]->(topic " + topic + ")");
 				}
 				else if (numCreated > 1) {
 					System.err.println("TweetToNeo4JHandler: Created morer than one relationship (user " + userId + ")-[mentions]->(topic " + topic + ")!");
@@ -269,12 +423,68 @@ public class GraphDatabase {
 				}
 			}
 
-			System.out.println("TweetToNeo4JHandler: Relationship between topic " + topic + " and user " + userId + " added to Neo4J.");
+			//System.out.println("TweetToNeo4JHandler: Relationship between topic " + topic + " and user " + userId + " added to Neo4J.");
 			tx.success();
 		}
 	}
 
-	public void addUser(User user) {
+	/**
+	 * Adds the given counts to the (user)-[mentions]->(topic) relationships in
+	 * one transaction, creating missing ones. Users that are not in the graph
+	 * are skipped.
+	 * 
+	 * @param userCounts
+	 *            userId -> number of new mentions
+	 * @return number of relationships written
+	 */
+	public synchronized int addMentionsCounts(String topic, LongLongMap userCounts) {
+		Long topicNodeId = topicNodes.get(topic.toLowerCase());
+		if (topicNodeId == null) {
+			System.err.println("GraphDatabase: Cannot add mentions for topic " + topic + " because it does not exist in the graph");
+			return 0;
+		}
+
+		int written = 0;
+		int created = 0;
+		int missing = 0;
+		try (Transaction tx = graphDb.beginTx()) {
+			Node topicNode = graphDb.getNodeById(topicNodeId);
+			for (long userId : userCounts.keys()) {
+				long userNodeId = userNodes.get(userId);
+				if (userNodeId == -1) {
+					missing++;
+					continue;
+				}
+				long count = userCounts.get(userId);
+
+				Node userNode = graphDb.getNodeById(userNodeId);
+				Relationship mentions = null;
+				for (Relationship r : userNode.getRelationships(Direction.OUTGOING, MENTIONS)) {
+					if (r.getEndNode().getId() == topicNodeId) {
+						mentions = r;
+						break;
+					}
+				}
+				if (mentions == null) {
+					mentions = userNode.createRelationshipTo(topicNode, MENTIONS);
+					mentions.setProperty("count", count);
+					created++;
+				} else {
+					mentions.setProperty("count", (Long) mentions.getProperty("count") + count);
+				}
+				written++;
+			}
+			tx.success();
+		}
+		addMentioningCount(topic, created);
+
+		if (missing > 0) {
+			System.err.println("GraphDatabase: Skipped mentions of topic " + topic + " for " + missing + " users that do not exist in the graph");
+		}
+		return written;
+	}
+
+	public synchronized void addUser(User user) {
 		if (!nodeForUserExists(user)) {
 			try (Transaction tx = graphDb.beginTx()) {
 				Node userNode = graphDb.createNode();
@@ -283,13 +493,14 @@ public class GraphDatabase {
 				userNode.setProperty("userName", user.getName());
 				userNode.setProperty("friendsCount", user.getFriendsCount());
 				userNode.setProperty("followersCount", user.getFollowersCount());
-				userNode.addLabel(DynamicLabel.label("user"));
+				userNode.addLabel(USER);
 
 				//System.out.println("TweetToNeo4JHandler: Adding user \"" + user.getName() + "\" (" + user.getId() + ")");
 
 				userIndex.add(userNode, "userId", userNode.getProperty("userId"));
 
 				tx.success();
+				userNodes.put(user.getId(), userNode.getId());
 			}
 		}
 		else {
@@ -298,14 +509,15 @@ public class GraphDatabase {
 		}
 	}
 
-	public void addRetweetsRelationship(User retweeter, User original) {
-		Relationship relationship = getRetweetsRelationship(retweeter.getId(), original.getId());
-		if (relationship == null) {
+	public synchronized void addRetweetsRelationship(User retweeter, User original) {
+		long relationshipId = retweetRelationships.get(retweeter.getId(), original.getId());
+		if (relationshipId == -1) {
 			createRetweetsRelationship(retweeter, original);
 		}
 		else {
 			//System.out.println("TweetToNeo4JHandler: Updating relationship (user " + retweeter.getId() + ")-[retweets]->(user " + original.getId() + ") in Neo4J DB");
 			try (Transaction tx = graphDb.beginTx()) {
+				Relationship relationship = graphDb.getRelationshipById(relationshipId);
 				Long count = (Long) relationship.getProperty("count");
 				//System.out.println("TweetToNeo4JHandler: Count was " + count);
 				relationship.setProperty("count", count+1);
@@ -316,37 +528,20 @@ public class GraphDatabase {
 	}
 
 	private void createRetweetsRelationship(User retweeter, User original) {
-		try (Transaction tx = graphDb.beginTx()) {
-			Map<String, Object> params = new HashMap<String, Object>();
-			params.put("aUserId", retweeter.getId());
-			params.put("bUserId", original.getId());
-
-			ExecutionResult result = cypherEngine.execute(createRetweetsRelationshipQ, params);
-
-			ResourceIterator<Map<String, Object>> resourceIterator = result.iterator();
-			if (!resourceIterator.hasNext()) {
-				System.err.println("TweetToNeo4JHandler: Failed to create relationship (user " + retweeter.getId() + ")-[retweets]->(user " + original.getId() + ") in Neo4J DB");
-			}
-			else {
-				Map<String, Object> map = resourceIterator.next();
-				Relationship relationship = (Relationship) map.get("r");
-				retweetsIndex.add(relationship, "retweeterId", retweeter.getId());
-			}
-
-		/*
-		int numCreated = result.getQueryStatistics().getRelationshipsCreated();
-		if (numCreated == 1) {
-			System.out.println("TweetToNeo4JHandler: Created relationship (user " + retweeter.getId() + ")-[retweets]->(user " + original.getId() + ") in Neo4J DB");
-		}
-		else if (numCreated > 1) {
-			System.err.println("TweetToNeo4JHandler: Created morer than one relationship (user " + retweeter.getId() + ")-[retweets]->(user " + original.getId() + ") in Neo4J DB");
-		}
-		else {
+		long from = userNodes.get(retweeter.getId());
+		long to = userNodes.get(original.getId());
+		if (from == -1 || to == -1) {
 			System.err.println("TweetToNeo4JHandler: Failed to create relationship (user " + retweeter.getId() + ")-[retweets]->(user " + original.getId() + ") in Neo4J DB");
+			return;
 		}
-		*/
+
+		try (Transaction tx = graphDb.beginTx()) {
+			Relationship relationship = graphDb.getNodeById(from).createRelationshipTo(graphDb.getNodeById(to), RETWEETS);
+			relationship.setProperty("count", 1L);
+			retweetsIndex.add(relationship, "retweeterId", retweeter.getId());
 
 			tx.success();
+			retweetRelationships.put(retweeter.getId(), original.getId(), relationship.getId());
 		}
 	}
 
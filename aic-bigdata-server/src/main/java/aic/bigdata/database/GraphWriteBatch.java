@@ -0,0 +1,143 @@
+package aic.bigdata.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import twitter4j.User;
+
+/**
+ * Write-behind buffer for GraphDatabase. Mutations are queued and applied in
+ * a single transaction once the batch is full, the flush interval has passed
+ * or flush()/close() is called. Queued writes are not visible to readers
+ * before they are flushed.
+ *
+ * Create instances with GraphDatabase.newWriteBatch(), so pending writes are
+ * also flushed when the database shuts down.
+ */
+public class GraphWriteBatch {
+
+	private GraphDatabase graph;
+	private int batchSize;
+	private List<Runnable> pending;
+	private ScheduledExecutorService flusher;
+	private long written = 0;
+	// a write failed since the last flush()
+	private boolean failed = false;
+
+	GraphWriteBatch(GraphDatabase graph, int batchSize, long flushIntervalMs) {
+		this.graph = graph;
+		this.batchSize = Math.max(1, batchSize);
+		this.pending = new ArrayList<Runnable>(this.batchSize);
+
+		if (flushIntervalMs > 0) {
+			flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "GraphWriteBatch-flush");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			flusher.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					// an exception would cancel all further runs
+					try {
+						write();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public void addUser(final User user) {
+		queue(new Runnable() {
+			@Override
+			public void run() {
+				graph.addUser(user);
+			}
+		});
+	}
+
+	public void addTopic(final String topic) {
+		queue(new Runnable() {
+			@Override
+			public void run() {
+				graph.addTopic(topic);
+			}
+		});
+	}
+
+	public void addRetweetsRelationship(final User retweeter, final User original) {
+		queue(new Runnable() {
+			@Override
+			public void run() {
+				graph.addRetweetsRelationship(retweeter, original);
+			}
+		});
+	}
+
+	public void addMentionsRelationship(final long userId, final String topic) {
+		queue(new Runnable() {
+			@Override
+			public void run() {
+				graph.addMentionsRelationship(userId, topic);
+			}
+		});
+	}
+
+	/**
+	 * Applies all queued writes in one transaction.
+	 * 
+	 * @return false, if a write failed since the last call, also one written
+	 *         when the batch was full or by the flush timer
+	 */
+	public synchronized boolean flush() {
+		write();
+		boolean ok = !failed;
+		failed = false;
+		return ok;
+	}
+
+	public synchronized long getWrittenCount() {
+		return written;
+	}
+
+	/**
+	 * Flushes and stops the flush timer.
+	 */
+	public void close() {
+		if (flusher != null)
+			flusher.shutdown();
+		flush();
+		graph.removeWriteBatch(this);
+	}
+
+	private synchronized void queue(Runnable op) {
+		pending.add(op);
+		if (pending.size() >= batchSize)
+			write();
+	}
+
+	private synchronized void write() {
+		if (pending.isEmpty())
+			return;
+		List<Runnable> ops = pending;
+		pending = new ArrayList<Runnable>(batchSize);
+		boolean ok = false;
+		try {
+			ok = graph.applyBatch(ops);
+		} finally {
+			// also reported if applyBatch threw, the writes are gone either way
+			if (!ok)
+				failed = true;
+			written += ops.size();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package aic.bigdata.database;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long to long without boxing. Keys and values
+ * live in two parallel arrays, so an entry costs 16 bytes per slot. With the
+ * load factor of 0.75 one million entries fit into 2^21 slots, i.e. 32 MB
+ * (a HashMap<Long, Long> needs roughly three times as much).
+ *
+ * Values must not be negative, get() returns -1 for missing keys. Not thread
+ * safe.
+ */
+public class LongLongMap {
+
+	private static final long FREE = 0L;
+	private static final float LOAD_FACTOR = 0.75f;
+
+	private long[] keys;
+	private long[] values;
+	private int size = 0;
+	private int threshold;
+
+	// key 0 marks a free slot, so it is stored separately
+	private boolean hasZeroKey = false;
+	private long zeroValue;
+
+	public LongLongMap() {
+		this(1024);
+	}
+
+	public LongLongMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	public long get(long key) {
+		if (key == FREE)
+			return hasZeroKey ? zeroValue : -1;
+
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != FREE) {
+			if (keys[i] == key)
+				return values[i];
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != -1;
+	}
+
+	public void put(long key, long value) {
+		if (value < 0)
+			throw new IllegalArgumentException("negative values are not supported: " + value);
+
+		if (key == FREE) {
+			if (!hasZeroKey)
+				size++;
+			hasZeroKey = true;
+			zeroValue = value;
+			return;
+		}
+
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != FREE) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size > threshold)
+			rehash(keys.length << 1);
+	}
+
+	/**
+	 * @return a copy of all keys, in no particular order
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int n = 0;
+		if (hasZeroKey)
+			result[n++] = FREE;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != FREE)
+				result[n++] = keys[i];
+		}
+		return result;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		hasZeroKey = false;
+		size = 0;
+	}
+
+	/**
+	 * @return approximate heap usage of the backing arrays in bytes
+	 */
+	public long memoryFootprint() {
+		return 16L * keys.length;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == FREE)
+				continue;
+			int i = hash(oldKeys[j]) & mask;
+			while (keys[i] != FREE) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	static int hash(long key) {
+		// murmur3 finalizer, twitter ids are not evenly distributed in the low bits
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
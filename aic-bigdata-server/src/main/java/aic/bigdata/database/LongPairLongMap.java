@@ -0,0 +1,136 @@
+package aic.bigdata.database;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from a pair of longs to a long, see LongLongMap.
+ * An entry costs 24 bytes per slot, one million pairs need 48 MB.
+ *
+ * Values must not be negative, get() returns -1 for missing keys. The pair
+ * (0, 0) is not supported. Not thread safe.
+ */
+public class LongPairLongMap {
+
+	/**
+	 * Receives the entries of forEach().
+	 */
+	public interface EntryVisitor {
+		void visit(long first, long second, long value);
+	}
+
+	private static final float LOAD_FACTOR = 0.75f;
+
+	private long[] firstKeys;
+	private long[] secondKeys;
+	private long[] values;
+	private int size = 0;
+	private int threshold;
+
+	public LongPairLongMap() {
+		this(1024);
+	}
+
+	public LongPairLongMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	public long get(long first, long second) {
+		int mask = values.length - 1;
+		int i = hash(first, second) & mask;
+		while (!isFree(i)) {
+			if (firstKeys[i] == first && secondKeys[i] == second)
+				return values[i];
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	public boolean containsKey(long first, long second) {
+		return get(first, second) != -1;
+	}
+
+	public void put(long first, long second, long value) {
+		if (value < 0)
+			throw new IllegalArgumentException("negative values are not supported: " + value);
+		if (first == 0 && second == 0)
+			throw new IllegalArgumentException("key (0, 0) is not supported");
+
+		int mask = values.length - 1;
+		int i = hash(first, second) & mask;
+		while (!isFree(i)) {
+			if (firstKeys[i] == first && secondKeys[i] == second) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		firstKeys[i] = first;
+		secondKeys[i] = second;
+		values[i] = value;
+		if (++size > threshold)
+			rehash(values.length << 1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Calls the visitor for every entry, in no particular order. The map must
+	 * not be changed meanwhile.
+	 */
+	public void forEach(EntryVisitor visitor) {
+		for (int i = 0; i < values.length; i++) {
+			if (!isFree(i))
+				visitor.visit(firstKeys[i], secondKeys[i], values[i]);
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(firstKeys, 0L);
+		Arrays.fill(secondKeys, 0L);
+		size = 0;
+	}
+
+	/**
+	 * @return approximate heap usage of the backing arrays in bytes
+	 */
+	public long memoryFootprint() {
+		return 24L * values.length;
+	}
+
+	private boolean isFree(int i) {
+		return firstKeys[i] == 0 && secondKeys[i] == 0;
+	}
+
+	private void allocate(int capacity) {
+		firstKeys = new long[capacity];
+		secondKeys = new long[capacity];
+		values = new long[capacity];
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private void rehash(int capacity) {
+		long[] oldFirst = firstKeys;
+		long[] oldSecond = secondKeys;
+		long[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldValues.length; j++) {
+			if (oldFirst[j] == 0 && oldSecond[j] == 0)
+				continue;
+			int i = hash(oldFirst[j], oldSecond[j]) & mask;
+			while (!isFree(i)) {
+				i = (i + 1) & mask;
+			}
+			firstKeys[i] = oldFirst[j];
+			secondKeys[i] = oldSecond[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	private static int hash(long first, long second) {
+		return LongLongMap.hash(first * 31 + second);
+	}
+}
@@ -1,43 +1,102 @@
 package aic.bigdata.database;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
+import org.apache.commons.lang3.StringUtils;
+
 import twitter4j.Status;
 import aic.bigdata.enrichment.AdObject;
 import aic.bigdata.enrichment.TopicObject;
 import aic.bigdata.server.ServerConfig;
 
-import com.google.gson.Gson;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.Bytes;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.DuplicateKeyException;
 import com.mongodb.MongoClient;
 import com.mongodb.util.JSON;
 
 public class MongoDatabase {
 
+	private static final int DUPLICATE_KEY = 11000;
+	private static final String USER_TIMESTAMP_IDX = "user.id_timestamp_ms_idx";
+
 	private ServerConfig cfg;
 	private MongoClient mongoclient;
 	private DB database;
 	private DBCollection tweets;
-	private boolean init = false;
+	private volatile boolean init = false;
 	private DBCollection users;
 	private DBCollection ads;
 	private DBCollection topics;
+	private DBCollection checkpoints;
+
+	// tweet ids seen so far, built on the first checkTweetExists()
+	private BloomFilter seenTweets;
 
 	public MongoDatabase(ServerConfig cfg) {
 		this.cfg = cfg;
 	}
 
+	/**
+	 * Uses the given client instead of opening a new one. MongoClient keeps its
+	 * own connection pool, so one instance can be shared by all requests.
+	 */
+	public MongoDatabase(ServerConfig cfg, MongoClient mongoclient) {
+		this.cfg = cfg;
+		this.mongoclient = mongoclient;
+	}
+
 	public void writeTweet(String tweet) throws UnknownHostException {
 		initialize();
 		DBObject o = (DBObject) JSON.parse(tweet);
-		this.tweets.insert(o);
+		try {
+			this.tweets.insert(o);
+		} catch (DuplicateKeyException e) {
+			// missed by checkTweetExists, e.g. written by another process
+		}
+		rememberTweet(o);
+	}
+
+	/**
+	 * Inserts the tweets as one unordered bulk write. Duplicates are rejected by
+	 * the unique "id" index and silently skipped.
+	 * 
+	 * @return number of tweets actually inserted
+	 * @throws UnknownHostException
+	 */
+	public int writeTweets(List<DBObject> batch) throws UnknownHostException {
+		initialize();
+		if (batch.isEmpty())
+			return 0;
+
+		BulkWriteOperation bulk = this.tweets.initializeUnorderedBulkOperation();
+		for (DBObject o : batch) {
+			bulk.insert(o);
+			rememberTweet(o);
+		}
+		try {
+			return bulk.execute().getInsertedCount();
+		} catch (BulkWriteException e) {
+			for (BulkWriteError error : e.getWriteErrors()) {
+				if (error.getCode() != DUPLICATE_KEY) {
+					System.err.println("Error writing tweet: " + error.getMessage());
+				}
+			}
+			return e.getWriteResult().getInsertedCount();
+		}
 	}
 
 	public DBCursor getCursorForTweets() throws UnknownHostException {
@@ -46,21 +105,191 @@ public class MongoDatabase {
 		return c;
 	}
 
+	/**
+	 * _id values that split the tweets into partitions of about the same size,
+	 * in ascending order. Only the _id index is read.
+	 * 
+	 * @param fromId
+	 *            only split the tweets with _id >= fromId, null for all
+	 * @return partitions - 1 boundaries, fewer if there are not enough tweets
+	 * @throws UnknownHostException
+	 */
+	public List<Object> getTweetIdBoundaries(int partitions, Object fromId) throws UnknownHostException {
+		initialize();
+
+		BasicDBObject query = new BasicDBObject();
+		if (fromId != null)
+			query.put("_id", new BasicDBObject("$gte", fromId));
+		long count = tweets.count(query);
+		List<Object> boundaries = new ArrayList<Object>();
+		BasicDBObject fields = new BasicDBObject("_id", 1);
+		BasicDBObject sort = new BasicDBObject("_id", 1);
+		for (int i = 1; i < partitions; i++) {
+			int skip = (int) (count * i / partitions);
+			if (skip == 0)
+				continue;
+			DBCursor c = tweets.find(query, fields).sort(sort).skip(skip).limit(1);
+			if (c.hasNext()) {
+				Object id = c.next().get("_id");
+				if (boundaries.isEmpty() || !boundaries.get(boundaries.size() - 1).equals(id))
+					boundaries.add(id);
+			}
+		}
+		return boundaries;
+	}
+
+	/**
+	 * Cursor over the tweets with fromId <= _id < toId.
+	 * 
+	 * @param fromId
+	 *            lower bound, null for none
+	 * @param toId
+	 *            upper bound, null for none
+	 * @param sorted
+	 *            return the tweets in _id order
+	 * @param fields
+	 *            projection, null for whole documents
+	 * @throws UnknownHostException
+	 */
+	public DBCursor getCursorForTweets(Object fromId, Object toId, boolean sorted, DBObject fields)
+			throws UnknownHostException {
+		initialize();
+
+		BasicDBObject range = new BasicDBObject();
+		if (fromId != null)
+			range.put("$gte", fromId);
+		if (toId != null)
+			range.put("$lt", toId);
+		BasicDBObject query = new BasicDBObject();
+		if (!range.isEmpty())
+			query.put("_id", range);
+
+		DBCursor c = tweets.find(query, fields);
+		if (sorted)
+			c.sort(new BasicDBObject("_id", 1));
+		// a replay takes longer than the default cursor timeout
+		return c.addOption(Bytes.QUERYOPTION_NOTIMEOUT);
+	}
+
+	/**
+	 * @return the _id saved for the replay checkpoint, null if there is none
+	 * @throws UnknownHostException
+	 */
+	public Object readCheckpoint(String name) throws UnknownHostException {
+		initialize();
+
+		DBObject o = checkpoints.findOne(new BasicDBObject("_id", name));
+		return o == null ? null : o.get("lastId");
+	}
+
+	public void writeCheckpoint(String name, Object lastId) throws UnknownHostException {
+		initialize();
+
+		BasicDBObject checkpoint = new BasicDBObject("_id", name);
+		checkpoint.put("lastId", lastId);
+		checkpoint.put("updated", new Date());
+		checkpoints.save(checkpoint);
+	}
+
 	public DBCursor getCursorForUsers() throws UnknownHostException {
 		initialize();
 		DBCursor c = users.find();
 		return c;
 	}
 
+	/**
+	 * With mongo.dedup.bloom the seen tweet ids are kept in a bloom filter and
+	 * MongoDB is only asked if the filter reports a probable hit, so new tweets
+	 * do not cost a read. The filter is loaded from mongo.dedup.file or built
+	 * from the "id" index on the first call.
+	 */
 	public boolean checkTweetExists(Status status) throws UnknownHostException {
 		initialize();
 
+		if (cfg.isMongoDedupBloom() && !getSeenTweets().mightContain(status.getId()))
+			return false;
+
 		DBObject f = new BasicDBObject();
 		f.put("id", status.getId());
 		DBObject o = this.tweets.findOne(f);
 		return o != null;
 	}
 
+	/**
+	 * Writes the bloom filter of seen tweet ids to mongo.dedup.file, if both
+	 * are there. The next run then does not need to scan the ids again.
+	 */
+	public void saveSeenTweets() {
+		String file = cfg.getMongoDedupFile();
+		BloomFilter filter;
+		synchronized (this) {
+			filter = seenTweets;
+		}
+		if (filter == null || StringUtils.isEmpty(file))
+			return;
+		try {
+			filter.writeTo(new File(file));
+		} catch (IOException e) {
+			System.err.println("could not save the seen tweets to " + file);
+			e.printStackTrace();
+		}
+	}
+
+	private synchronized BloomFilter getSeenTweets() {
+		if (seenTweets == null)
+			seenTweets = loadSeenTweets();
+		return seenTweets;
+	}
+
+	private BloomFilter loadSeenTweets() {
+		String file = cfg.getMongoDedupFile();
+		if (!StringUtils.isEmpty(file) && new File(file).exists()) {
+			try {
+				BloomFilter filter = BloomFilter.readFrom(new File(file));
+				System.out.println("Loaded " + filter.size() + " seen tweet ids from " + file);
+				return filter;
+			} catch (IOException e) {
+				System.err.println("could not read the seen tweets from " + file + ", scanning the tweets instead");
+				e.printStackTrace();
+			}
+		}
+
+		long time = System.currentTimeMillis();
+		BloomFilter filter = new BloomFilter(cfg.getMongoDedupExpectedTweets(), cfg.getMongoDedupFalsePositiveRate(),
+				cfg.getMongoDedupMaxBytes());
+		BasicDBObject fields = new BasicDBObject("id", 1);
+		fields.put("_id", 0);
+		// covered by the unique "id" index, the documents are not read
+		DBCursor c = this.tweets.find(new BasicDBObject(), fields).hint(new BasicDBObject("id", 1));
+		try {
+			while (c.hasNext()) {
+				Object id = c.next().get("id");
+				if (id instanceof Number)
+					filter.put(((Number) id).longValue());
+			}
+		} finally {
+			c.close();
+		}
+		System.out.println("Scanned " + filter.size() + " tweet ids in " + (System.currentTimeMillis() - time) + "ms, "
+				+ filter.memoryFootprint() / 1024 + " KB, expected false positive rate "
+				+ filter.expectedFalsePositiveRate());
+		return filter;
+	}
+
+	/**
+	 * Tweets written before the filter is built are found by its scan, or, if
+	 * missed by a concurrent scan, rejected by the unique "id" index.
+	 */
+	private void rememberTweet(DBObject o) {
+		BloomFilter filter;
+		synchronized (this) {
+			filter = seenTweets;
+		}
+		Object id = o.get("id");
+		if (filter != null && id instanceof Number)
+			filter.put(((Number) id).longValue());
+	}
+
 	public String readLatestTweetsAsOneString(Long userId, Integer latest) throws UnknownHostException {
 		initialize();
 
@@ -81,6 +310,34 @@ public class MongoDatabase {
 		return result.toString();
 	}
 
+	/**
+	 * Cursor over the text of all tweets, grouped by user and newest first
+	 * within a user. Lets the analysis read the latest tweets of every user in
+	 * one sequential scan instead of one query per user.
+	 * 
+	 * @throws UnknownHostException
+	 */
+	public DBCursor getCursorForTweetsByUser() throws UnknownHostException {
+		initialize();
+
+		BasicDBObject fields = new BasicDBObject();
+		fields.put("user.id", 1);
+		fields.put("timestamp_ms", 1);
+		fields.put("text", 1);
+		fields.put("_id", 0);
+
+		BasicDBObject sort = new BasicDBObject();
+		sort.put("user.id", 1);
+		sort.put("timestamp_ms", -1);
+
+		// documents without user (e.g. delete notices) would sort first
+		BasicDBObject query = new BasicDBObject("user.id", new BasicDBObject("$exists", true));
+
+		// the scan takes longer than the default cursor timeout
+		return this.tweets.find(query, fields).sort(sort).hint(USER_TIMESTAMP_IDX)
+				.addOption(Bytes.QUERYOPTION_NOTIMEOUT);
+	}
+
 	public void writeAd(String ad) throws UnknownHostException {
 		initialize();
 		DBObject o = (DBObject) JSON.parse(ad);
@@ -91,9 +348,23 @@ public class MongoDatabase {
 		initialize();
 		DBCursor cur = this.ads.find();
 		List<AdObject> list = new ArrayList<AdObject>();
-		Gson g = new Gson();
 		for (DBObject obj : cur) {
-			AdObject a = g.fromJson(obj.toString(), AdObject.class);
+			AdObject a = new AdObject();
+			if (obj.get("id") instanceof Number)
+				a.setId(((Number) obj.get("id")).intValue());
+			a.setName((String) obj.get("name"));
+			a.setCampaign((String) obj.get("campaign"));
+			a.setText((String) obj.get("text"));
+			a.setCredits((String) obj.get("credits"));
+			a.setPicture((String) obj.get("picture"));
+			BasicDBList topics = (BasicDBList) obj.get("topics");
+			if (topics != null) {
+				List<String> names = new ArrayList<String>(topics.size());
+				for (Object t : topics) {
+					names.add((String) t);
+				}
+				a.setTopics(names);
+			}
 			list.add(a);
 		}
 		return list;
@@ -103,9 +374,15 @@ public class MongoDatabase {
 		initialize();
 		DBCursor cur = this.topics.find();
 		List<TopicObject> list = new ArrayList<TopicObject>();
-		Gson g = new Gson();
 		for (DBObject obj : cur) {
-			TopicObject a = g.fromJson(obj.toString(), TopicObject.class);
+			TopicObject a = new TopicObject();
+			a.setId((String) obj.get("id"));
+			BasicDBList ads = (BasicDBList) obj.get("ads");
+			if (ads != null) {
+				for (Object ad : ads) {
+					a.getAds().add(((Number) ad).intValue());
+				}
+			}
 			list.add(a);
 		}
 		return list;
@@ -215,22 +492,37 @@ public class MongoDatabase {
 
 		helper.createIndex("user.id", this.tweets, 1);
 		helper.createIndex("timestamp_ms", this.tweets, -1);
+
+		BasicDBObject userTimestamp = new BasicDBObject();
+		userTimestamp.put("user.id", 1);
+		userTimestamp.put("timestamp_ms", -1);
+		helper.createIndex(USER_TIMESTAMP_IDX, userTimestamp, this.tweets);
 	}
 
 	private void initialize() throws UnknownHostException {
 		if (!init) {
-			this.mongoclient = new MongoClient(); // use local started one
-			String mongodbname = cfg.getMongoDbName();
-			System.out.println(mongodbname);
-
-			this.database = mongoclient.getDB(mongodbname);
-			this.tweets = database.getCollection(cfg.getMongoCollection());
-			this.users = database.getCollection(cfg.getMongoCollectionUsers());
-			this.ads = database.getCollection(cfg.getMongoCollectionAds());
-			this.topics = database.getCollection(cfg.getMongoCollectionTopics());
-			createIndexies();
-			this.init = true;
+			synchronized (this) {
+				if (!init) {
+					connect();
+				}
+			}
 		}
 	}
 
-}
+	private void connect() throws UnknownHostException {
+		if (this.mongoclient == null)
+			this.mongoclient = new MongoClient(); // use local started one
+		String mongodbname = cfg.getMongoDbName();
+		System.out.println(mongodbname);
+
+		this.database = mongoclient.getDB(mongodbname);
+		this.tweets = database.getCollection(cfg.getMongoCollection());
+		this.users = database.getCollection(cfg.getMongoCollectionUsers());
+		this.ads = database.getCollection(cfg.getMongoCollectionAds());
+		this.topics = database.getCollection(cfg.getMongoCollectionTopics());
+		this.checkpoints = database.getCollection(cfg.getMongoCollectionCheckpoints());
+		createIndexies();
+		this.init = true;
+	}
+
+}
\ No newline at end of file
@@ -18,6 +18,13 @@ public class MongoDatabaseHelper {
 		}
 	}
 
+	public void createIndex(String indexName, DBObject keys, DBCollection col) {
+		DBObject opt = new BasicDBObject("name", indexName);
+		if (!checkIndexExists(indexName, col)) {
+			col.createIndex(keys, opt);
+		}
+	}
+
 	public void createUniqueIndex(String name, DBCollection col) {
 		String indexName = "uq_" + name + "_idx";
 		DBObject idx = new BasicDBObject(name, 1);
@@ -1,77 +1,339 @@
 package aic.bigdata.database;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
 import org.h2.jdbcx.JdbcDataSource;
 
 import aic.bigdata.database.model.AicUser;
 import aic.bigdata.server.ServerConfig;
 
+import com.j256.ormlite.dao.BaseDaoImpl;
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.db.DatabaseType;
 import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.DataSourceConnectionSource;
+import com.j256.ormlite.field.FieldType;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
 import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.Where;
 import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
 import com.j256.ormlite.table.TableUtils;
 
 public class SqlDatabase {
 
+	/**
+	 * Maximum number of ids in one IN query.
+	 */
+	private static final int IN_CHUNK_SIZE = 1000;
+
+	/**
+	 * Time the user count is cached.
+	 */
+	private static final long COUNT_TTL = 60000;
+
+	/**
+	 * Number of page positions remembered by getUsers(page, pageSize).
+	 */
+	private static final int MAX_PAGE_CURSORS = 1000;
+
 	JdbcDataSource ds = null;
 	Connection conn = null;
 	private ConnectionSource connectionSource;
 	private Dao<AicUser, String> userDao = null;
+	private String mergeUserSql;
+
+	private volatile long cachedUserCount = -1;
+	private volatile long cachedUserCountTime = 0;
+
+	// "pageSize:page" -> last user before that page
+	private Map<String, AicUser> pageCursors = new LinkedHashMap<String, AicUser>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, AicUser> eldest) {
+			return size() > MAX_PAGE_CURSORS;
+		}
+	};
 
 	public SqlDatabase(ServerConfig config) throws SQLException {
-		String url = "jdbc:h2:file:./" + config.getSqlDatabaseName();
-		connectionSource = new JdbcConnectionSource(url, "sa", "sa");
+		connectionSource = new JdbcConnectionSource(getUrl(config), "sa", "sa");
+		initialize(config);
+	}
+
+	/**
+	 * Uses connections of the given pool, so one instance can be shared by
+	 * concurrent requests.
+	 * 
+	 * @see #createConnectionPool(ServerConfig)
+	 */
+	public SqlDatabase(ServerConfig config, DataSource dataSource) throws SQLException {
+		connectionSource = new DataSourceConnectionSource(dataSource, getUrl(config));
+		initialize(config);
+	}
 
+	public static JdbcConnectionPool createConnectionPool(ServerConfig config) {
+		JdbcConnectionPool pool = JdbcConnectionPool.create(getUrl(config), "sa", "sa");
+		pool.setMaxConnections(config.getSqlPoolSize());
+		return pool;
+	}
+
+	private static String getUrl(ServerConfig config) {
+		return "jdbc:h2:file:./" + config.getSqlDatabaseName();
+	}
+
+	private void initialize(ServerConfig config) throws SQLException {
 		TableUtils.createTableIfNotExists(connectionSource, AicUser.class);
 		if (config.getSqlCleanOnStart()) {
 			TableUtils.clearTable(connectionSource, AicUser.class);
 		}
 		userDao = DaoManager.createDao(connectionSource, AicUser.class);
+		// keyset pagination in getUsersAfter
+		userDao.executeRaw("CREATE INDEX IF NOT EXISTS `Users_name_id_idx` ON `Users` (`name`, `id`)");
+		mergeUserSql = createMergeSql();
+	}
+
+	private String createMergeSql() {
+		DatabaseType type = connectionSource.getDatabaseType();
+		StringBuilder sql = new StringBuilder("MERGE INTO ");
+		type.appendEscapedEntityName(sql, getUserFields()[0].getTableName());
+		sql.append(" (");
+		StringBuilder values = new StringBuilder();
+		for (FieldType field : getUserFields()) {
+			if (values.length() > 0) {
+				sql.append(", ");
+				values.append(", ");
+			}
+			type.appendEscapedEntityName(sql, field.getColumnName());
+			values.append("?");
+		}
+		sql.append(") KEY (");
+		type.appendEscapedEntityName(sql, "id");
+		sql.append(") VALUES (").append(values).append(")");
+		return sql.toString();
+	}
+
+	private FieldType[] getUserFields() {
+		return ((BaseDaoImpl<AicUser, String>) userDao).getTableInfo().getFieldTypes();
 	}
 
 	public void recreateTables() throws SQLException {
 		TableUtils.dropTable(connectionSource, AicUser.class, true);
 		TableUtils.createTableIfNotExists(connectionSource, AicUser.class);
+		usersChanged();
 	}
 
 	public void createUser(AicUser user) throws SQLException {
 		if (userDao.queryForSameId(user) == null) {
 			userDao.create(user);
+			usersChanged();
+		}
+	}
+
+	/**
+	 * Inserts or updates the users with one batched MERGE in a single
+	 * transaction. Unlike createUser, existing users are overwritten with the
+	 * given data.
+	 * 
+	 * @return number of users written
+	 */
+	public int upsertUsers(Collection<AicUser> users) throws SQLException {
+		if (users.isEmpty())
+			return 0;
+
+		FieldType[] fields = getUserFields();
+		DatabaseConnection dbConn = connectionSource.getReadWriteConnection();
+		try {
+			Connection conn = ((JdbcDatabaseConnection) dbConn).getInternalConnection();
+			boolean autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			try (PreparedStatement stmt = conn.prepareStatement(mergeUserSql)) {
+				for (AicUser user : users) {
+					for (int i = 0; i < fields.length; i++) {
+						stmt.setObject(i + 1, fields[i].extractJavaFieldToSqlArgValue(user));
+					}
+					stmt.addBatch();
+				}
+				stmt.executeBatch();
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(autoCommit);
+			}
+		} finally {
+			connectionSource.releaseConnection(dbConn);
 		}
+		usersChanged();
+		return users.size();
 	}
 
 	public AicUser getUserById(long id) throws SQLException {
 		return userDao.queryForId(String.valueOf(id));
 	}
 
+	/**
+	 * Reads the users with one IN query per 1000 ids. Ids that are not in the
+	 * database are skipped, the order of the result is undefined.
+	 * 
+	 * @param columns
+	 *            columns to read, all if none are given. The id is always read.
+	 */
+	public List<AicUser> getUsersByIds(Collection<Long> ids, String... columns) throws SQLException {
+		List<AicUser> users = new ArrayList<AicUser>(ids.size());
+		List<Long> chunk = new ArrayList<Long>(Math.min(ids.size(), IN_CHUNK_SIZE));
+		Iterator<Long> it = ids.iterator();
+		while (it.hasNext()) {
+			chunk.add(it.next());
+			if (chunk.size() == IN_CHUNK_SIZE || !it.hasNext()) {
+				QueryBuilder<AicUser, String> qb = userDao.queryBuilder();
+				if (columns.length > 0) {
+					qb.selectColumns("id").selectColumns(columns);
+				}
+				qb.where().in("id", chunk);
+				users.addAll(qb.query());
+				chunk.clear();
+			}
+		}
+		return users;
+	}
+
 	public long getUserCount() throws SQLException {
 		return userDao.countOf();
 	}
 
+	/**
+	 * Number of users, cached for a minute. Counting is a full scan on the
+	 * users table, so this is preferred where an approximate count is enough.
+	 */
+	public long getApproximateUserCount() throws SQLException {
+		long now = System.currentTimeMillis();
+		if (cachedUserCount == -1 || now - cachedUserCountTime > COUNT_TTL) {
+			cachedUserCount = getUserCount();
+			cachedUserCountTime = now;
+		}
+		return cachedUserCount;
+	}
+
 	public List<AicUser> getAllUsers() throws SQLException {
 		return userDao.queryForAll();
 	}
 
+	/**
+	 * Users ordered by (name, id), starting after the given user. Uses the
+	 * (name, id) index, so deep pages are as fast as the first one.
+	 * 
+	 * @param afterName
+	 *            name of the last user of the previous page, null for the first
+	 *            page
+	 * @param afterId
+	 *            id of the last user of the previous page
+	 */
+	public List<AicUser> getUsersAfter(String afterName, long afterId, long pageSize) throws SQLException {
+		QueryBuilder<AicUser, String> qb = userDao.queryBuilder();
+		qb.orderBy("name", true).orderBy("id", true).limit(pageSize);
+		if (afterName != null) {
+			// name >= ? lets the index skip to the position, the OR resolves ties:
+			// name >= ? AND (name > ? OR id > ?), combined on the clause stack
+			Where<AicUser, String> w = qb.where();
+			w.ge("name", new SelectArg(afterName));
+			w.gt("name", new SelectArg(afterName));
+			w.gt("id", afterId);
+			w.or(2);
+			w.and(2);
+		}
+		return qb.query();
+	}
+
+	/**
+	 * Compatibility for page based clients. Remembers the last user of every
+	 * page that was read, so paging forward uses getUsersAfter(); other pages
+	 * fall back to an OFFSET query. Written users shift the pages, so the
+	 * remembered users are dropped on every write.
+	 */
 	public List<AicUser> getUsers(long page, long pageSize) throws SQLException {
-		long startRow = page * pageSize;
-		PreparedQuery<AicUser> q = userDao.queryBuilder().offset(startRow).limit(pageSize).orderBy("name", true)
-				.prepare();
-		return userDao.query(q);
+		AicUser cursor;
+		synchronized (pageCursors) {
+			cursor = pageCursors.get(pageSize + ":" + page);
+		}
+
+		List<AicUser> users;
+		if (page == 0) {
+			users = getUsersAfter(null, 0, pageSize);
+		} else if (cursor != null && cursor.getName() != null) {
+			users = getUsersAfter(cursor.getName(), cursor.getId(), pageSize);
+		} else {
+			long startRow = page * pageSize;
+			PreparedQuery<AicUser> q = userDao.queryBuilder().offset(startRow).limit(pageSize).orderBy("name", true)
+					.orderBy("id", true).prepare();
+			users = userDao.query(q);
+		}
+
+		if (!users.isEmpty()) {
+			synchronized (pageCursors) {
+				pageCursors.put(pageSize + ":" + (page + 1), users.get(users.size() - 1));
+			}
+		}
+		return users;
+	}
+
+	/**
+	 * Drops what is cached about the users table after a write.
+	 */
+	private void usersChanged() {
+		cachedUserCount = -1;
+		synchronized (pageCursors) {
+			pageCursors.clear();
+		}
+	}
+
+	/**
+	 * Streams the ids of at most userLimit users, reading only the id column.
+	 * The iterator must be closed if it is not read to the end.
+	 * 
+	 * @param byFollowers
+	 *            users with the most followers first, otherwise in no
+	 *            particular order
+	 */
+	public UserIdIterator iterateUserIds(int userLimit, boolean byFollowers) throws SQLException {
+		QueryBuilder<AicUser, String> qb = userDao.queryBuilder();
+		qb.selectColumns("id").limit((long) userLimit);
+		if (byFollowers) {
+			qb.orderBy("followersCount", false);
+		}
+		return new UserIdIterator(connectionSource, qb.prepare());
 	}
 
-	public List<Long> getUserIds(int userLimit) throws SQLException {
-		List<Long> list = new ArrayList<Long>();
-		PreparedQuery<AicUser> q = userDao.queryBuilder().prepare();
-		for (AicUser usr : userDao.query(q)) {
-			list.add(usr.getId());
+	/**
+	 * @see #iterateUserIds(int, boolean)
+	 */
+	public long[] getUserIds(int userLimit, boolean byFollowers) throws SQLException {
+		long[] ids = new long[1024];
+		int n = 0;
+		try (UserIdIterator it = iterateUserIds(userLimit, byFollowers)) {
+			while (it.hasNext()) {
+				if (n == ids.length)
+					ids = Arrays.copyOf(ids, n * 2);
+				ids[n++] = it.next();
+			}
 		}
-		return list;
+		return Arrays.copyOf(ids, n);
 	}
 
 }
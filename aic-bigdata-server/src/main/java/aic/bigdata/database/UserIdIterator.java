@@ -0,0 +1,77 @@
+package aic.bigdata.database;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.stmt.StatementBuilder.StatementType;
+import com.j256.ormlite.support.CompiledStatement;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.support.DatabaseResults;
+
+/**
+ * Streams the ids of a query that selects only the id column, without
+ * creating user objects or boxing the ids. Holds a database connection until
+ * it is closed.
+ * 
+ * @see SqlDatabase#iterateUserIds(int, boolean)
+ */
+public class UserIdIterator implements Closeable {
+
+	private ConnectionSource connectionSource;
+	private DatabaseConnection connection;
+	private CompiledStatement statement;
+	private DatabaseResults results;
+
+	private boolean hasNext;
+
+	UserIdIterator(ConnectionSource connectionSource, PreparedQuery<?> query) throws SQLException {
+		this.connectionSource = connectionSource;
+		this.connection = connectionSource.getReadOnlyConnection();
+		try {
+			this.statement = query.compile(connection, StatementType.SELECT);
+			this.results = statement.runQuery(null);
+			this.hasNext = results.next();
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	public long next() throws SQLException {
+		if (!hasNext)
+			throw new NoSuchElementException();
+		long id = results.getLong(0);
+		hasNext = results.next();
+		if (!hasNext)
+			close();
+		return id;
+	}
+
+	@Override
+	public void close() {
+		hasNext = false;
+		if (results != null) {
+			results.closeQuietly();
+			results = null;
+		}
+		if (statement != null) {
+			statement.closeQuietly();
+			statement = null;
+		}
+		if (connection != null) {
+			try {
+				connectionSource.releaseConnection(connection);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+			connection = null;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package aic.bigdata.enrichment;
+
+import aic.bigdata.database.LongLongMap;
+
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * Turns a cursor from MongoDatabase.getCursorForTweetsByUser() into one
+ * concatenated string of the latest tweets per user, the same string
+ * MongoDatabase.readLatestTweetsAsOneString() returns for that user.
+ */
+public class LatestTweetsReader {
+
+	private static final long NO_USER = -1;
+
+	private DBCursor cursor;
+	private int latest;
+	private LongLongMap users;
+
+	private DBObject lookahead;
+	private long userId;
+
+	/**
+	 * @param users
+	 *            only these users are returned, all if null
+	 */
+	public LatestTweetsReader(DBCursor cursor, int latest, LongLongMap users) {
+		this.cursor = cursor;
+		this.latest = latest;
+		this.users = users;
+	}
+
+	/**
+	 * Reads the tweets of the next user.
+	 * 
+	 * @return the concatenated tweets, or null if the cursor is exhausted
+	 */
+	public String next() {
+		while (true) {
+			DBObject first = lookahead != null ? lookahead : (cursor.hasNext() ? cursor.next() : null);
+			lookahead = null;
+			if (first == null) {
+				cursor.close();
+				return null;
+			}
+			if (userIdOf(first) == NO_USER)
+				continue;
+
+			long current = userIdOf(first);
+			boolean wanted = users == null || users.containsKey(current);
+			StringBuilder result = new StringBuilder();
+			int count = 0;
+			DBObject o = first;
+			while (o != null) {
+				if (wanted && count < latest) {
+					result.append(" ").append((String) o.get("text"));
+					count++;
+				}
+				o = null;
+				while (o == null && cursor.hasNext()) {
+					o = cursor.next();
+					if (userIdOf(o) == NO_USER)
+						o = null;
+				}
+				if (o != null && userIdOf(o) != current) {
+					lookahead = o;
+					break;
+				}
+			}
+
+			if (wanted) {
+				userId = current;
+				return result.toString();
+			}
+		}
+	}
+
+	/**
+	 * @return the user of the tweets last returned by next()
+	 */
+	public long getUserId() {
+		return userId;
+	}
+
+	public void close() {
+		cursor.close();
+	}
+
+	/**
+	 * @return NO_USER for documents without user, e.g. delete notices stored
+	 *         by the json importer
+	 */
+	private static long userIdOf(DBObject tweet) {
+		Object user = tweet.get("user");
+		if (!(user instanceof DBObject))
+			return NO_USER;
+		Object id = ((DBObject) user).get("id");
+		return id instanceof Number ? ((Number) id).longValue() : NO_USER;
+	}
+}
@@ -0,0 +1,61 @@
+package aic.bigdata.enrichment;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import aic.bigdata.database.GraphDatabase;
+import aic.bigdata.database.LongLongMap;
+
+/**
+ * Counts user -> topic mentions in memory and writes them to Neo4J in bulk,
+ * one transaction per topic, whenever chunkSize pairs are pending.
+ */
+public class MentionsAggregator {
+
+	private GraphDatabase graphDB;
+	private int chunkSize;
+
+	// topic -> (userId -> count)
+	private Map<String, LongLongMap> counts = new HashMap<String, LongLongMap>();
+	private int pending = 0;
+	private long written = 0;
+
+	public MentionsAggregator(GraphDatabase graphDB, int chunkSize) {
+		this.graphDB = graphDB;
+		this.chunkSize = chunkSize;
+	}
+
+	public synchronized void addMention(long userId, String topic) {
+		LongLongMap users = counts.get(topic);
+		if (users == null) {
+			users = new LongLongMap();
+			counts.put(topic, users);
+		}
+		long count = users.get(userId);
+		if (count == -1) {
+			users.put(userId, 1);
+			pending++;
+		} else {
+			users.put(userId, count + 1);
+		}
+
+		if (pending >= chunkSize)
+			flush();
+	}
+
+	public synchronized void flush() {
+		for (Entry<String, LongLongMap> e : counts.entrySet()) {
+			written += graphDB.addMentionsCounts(e.getKey(), e.getValue());
+		}
+		counts.clear();
+		pending = 0;
+	}
+
+	/**
+	 * @return number of mentions relationships created or updated so far
+	 */
+	public synchronized long getWrittenCount() {
+		return written;
+	}
+}
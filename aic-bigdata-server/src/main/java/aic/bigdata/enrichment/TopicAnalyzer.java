@@ -2,9 +2,20 @@ package aic.bigdata.enrichment;
 
 import java.net.UnknownHostException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import aic.bigdata.database.GraphDatabase;
+import aic.bigdata.database.LongLongMap;
 import aic.bigdata.database.MongoDatabase;
 import aic.bigdata.database.SqlDatabase;
 import aic.bigdata.server.ServerConfig;
@@ -18,7 +29,7 @@ public class TopicAnalyzer implements Runnable {
 	private GraphDatabase graphDB;
 	private SqlDatabase sqldb;
 
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
 	 * Maximum amount of users that are analyzed.
@@ -30,6 +41,32 @@ public class TopicAnalyzer implements Runnable {
 	 */
 	private int latestTweetsLimit = 100;
 
+	/**
+	 * Number of (user, topic) pairs collected before they are written to Neo4J.
+	 */
+	private int mentionsChunkSize = 50000;
+
+	/**
+	 * Number of threads analyzing users in parallel.
+	 */
+	private int workers;
+
+	/**
+	 * Users a worker takes from the list at once.
+	 */
+	private int userChunkSize = 1000;
+
+	/**
+	 * Seconds between two progress reports.
+	 */
+	private int progressInterval = 10;
+
+	/**
+	 * Read all tweets in one scan sorted by user, instead of one query per
+	 * user.
+	 */
+	private boolean singlePass;
+
 	public TopicAnalyzer(ServerConfig config, GraphDatabase graphDB) {
 		this.mongodb = new MongoDatabase(config);
 		try {
@@ -39,10 +76,15 @@ public class TopicAnalyzer implements Runnable {
 			e.printStackTrace();
 		}
 		this.graphDB = graphDB;
+		this.workers = config.getAnalysisWorkers();
+		this.singlePass = config.isAnalysisSinglePass();
 	}
 
 	/**
-	 * Analyze tweets and store topics that are seen as interesting in Neo4J db
+	 * Analyze tweets and store topics that are seen as interesting in Neo4J db.
+	 * The users are split into chunks, which are processed by a pool of
+	 * workers. In single pass mode one thread scans the tweets sorted by user
+	 * and hands the latest tweets of every user to the workers instead.
 	 * 
 	 * @throws UnknownHostException
 	 * @throws SQLException
@@ -51,21 +93,57 @@ public class TopicAnalyzer implements Runnable {
 		this.running = true;
 		long time = System.currentTimeMillis();
 		List<String> topics = mongodb.readAllTopicsInLowercase();
-		List<Long> userIds = sqldb.getUserIds(userLimit);
-		TopicTweetsMiner miner = new TopicTweetsMiner(topics);
-		String bigTweet = null;
-		for (int i = 0; i < userIds.size() && running; i++) {
-			bigTweet = mongodb.readLatestTweetsAsOneString(userIds.get(i), latestTweetsLimit);
+		long[] userIds = sqldb.getUserIds(userLimit, false);
+		MentionsAggregator mentions = new MentionsAggregator(graphDB, mentionsChunkSize);
+		AtomicInteger nextChunk = new AtomicInteger();
+		AtomicInteger analyzed = new AtomicInteger();
 
-			List<String> interests = miner.getInterestedTopics(bigTweet);
+		ExecutorService pool = Executors.newFixedThreadPool(singlePass ? workers + 1 : workers);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		if (singlePass) {
+			BlockingQueue<UserTweets> queue = new ArrayBlockingQueue<UserTweets>(userChunkSize * workers);
+			LongLongMap users = new LongLongMap(userIds.length);
+			for (long id : userIds) {
+				users.put(id, 0);
+			}
+			LatestTweetsReader reader = new LatestTweetsReader(mongodb.getCursorForTweetsByUser(), latestTweetsLimit,
+					users);
+			results.add(pool.submit(new ScanWorker(reader, queue)));
+			for (int i = 0; i < workers; i++) {
+				results.add(pool.submit(new QueueWorker(topics, queue, analyzed, mentions)));
+			}
+		} else {
+			for (int i = 0; i < workers; i++) {
+				results.add(pool.submit(new AnalyzeWorker(topics, userIds, nextChunk, analyzed, mentions)));
+			}
+		}
+		pool.shutdown();
 
-			for (int j = 0; j < interests.size(); j++) {
-				graphDB.addMentionsRelationship(userIds.get(i), interests.get(j));
+		try {
+			while (!pool.awaitTermination(progressInterval, TimeUnit.SECONDS)) {
+				long seconds = Math.max(1, (System.currentTimeMillis() - time) / 1000);
+				System.out.println("analyzed " + analyzed.get() + "/" + userIds.length + " users, "
+						+ (analyzed.get() / seconds) + " users/s");
+			}
+			for (Future<Void> result : results) {
+				result.get();
 			}
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			pool.shutdownNow();
+			if (e.getCause() instanceof UnknownHostException)
+				throw (UnknownHostException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			mentions.flush();
+			graphDB.invalidateMentioningCounts();
 		}
 
 		System.out.println("mining done. processing time: " + (System.currentTimeMillis() - time) + "ms for "
-				+ userIds.size() + " users.");
+				+ analyzed.get() + " users with " + workers + " workers, " + mentions.getWrittenCount()
+				+ " mentions written.");
 	}
 
 	@Override
@@ -81,4 +159,138 @@ public class TopicAnalyzer implements Runnable {
 	public void stopAnalyze() {
 		this.running = false;
 	}
+
+	private void analyzeUser(TopicTweetsMiner miner, MentionsAggregator mentions, long userId, String bigTweet) {
+		List<String> interests = miner.getInterestedTopics(bigTweet);
+
+		for (int j = 0; j < interests.size(); j++) {
+			mentions.addMention(userId, interests.get(j));
+		}
+	}
+
+	/**
+	 * Takes chunks of users until all are analyzed or the analysis is stopped.
+	 * Every worker has its own miner, the mongodb client and the aggregator are
+	 * shared.
+	 */
+	private class AnalyzeWorker implements Callable<Void> {
+		private TopicTweetsMiner miner;
+		private long[] userIds;
+		private AtomicInteger nextChunk;
+		private AtomicInteger analyzed;
+		private MentionsAggregator mentions;
+
+		AnalyzeWorker(List<String> topics, long[] userIds, AtomicInteger nextChunk, AtomicInteger analyzed,
+				MentionsAggregator mentions) {
+			this.miner = new TopicTweetsMiner(topics);
+			this.userIds = userIds;
+			this.nextChunk = nextChunk;
+			this.analyzed = analyzed;
+			this.mentions = mentions;
+		}
+
+		@Override
+		public Void call() throws UnknownHostException {
+			int from;
+			while (running && (from = nextChunk.getAndIncrement() * userChunkSize) < userIds.length) {
+				int to = Math.min(from + userChunkSize, userIds.length);
+				for (int i = from; i < to && running; i++) {
+					String bigTweet = mongodb.readLatestTweetsAsOneString(userIds[i], latestTweetsLimit);
+					analyzeUser(miner, mentions, userIds[i], bigTweet);
+					analyzed.incrementAndGet();
+				}
+			}
+			return null;
+		}
+	}
+
+	private static class UserTweets {
+		static final UserTweets END = new UserTweets(0, null);
+
+		final long userId;
+		final String text;
+
+		UserTweets(long userId, String text) {
+			this.userId = userId;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Single pass mode: reads the latest tweets of every user from the sorted
+	 * scan and queues them for the QueueWorkers.
+	 */
+	private class ScanWorker implements Callable<Void> {
+		private LatestTweetsReader reader;
+		private BlockingQueue<UserTweets> queue;
+
+		ScanWorker(LatestTweetsReader reader, BlockingQueue<UserTweets> queue) {
+			this.reader = reader;
+			this.queue = queue;
+		}
+
+		@Override
+		public Void call() throws InterruptedException {
+			try {
+				String bigTweet;
+				while (running && (bigTweet = reader.next()) != null) {
+					put(new UserTweets(reader.getUserId(), bigTweet));
+				}
+				for (int i = 0; i < workers; i++) {
+					put(UserTweets.END);
+				}
+			} catch (RuntimeException e) {
+				// the workers would wait for more tweets forever otherwise
+				running = false;
+				throw e;
+			} finally {
+				reader.close();
+			}
+			return null;
+		}
+
+		private void put(UserTweets tweets) throws InterruptedException {
+			while (running && !queue.offer(tweets, 1, TimeUnit.SECONDS)) {
+				// workers are busy, check for stopAnalyze() and retry
+			}
+		}
+	}
+
+	/**
+	 * Single pass mode: mines the tweets queued by the ScanWorker.
+	 */
+	private class QueueWorker implements Callable<Void> {
+		private TopicTweetsMiner miner;
+		private BlockingQueue<UserTweets> queue;
+		private AtomicInteger analyzed;
+		private MentionsAggregator mentions;
+
+		QueueWorker(List<String> topics, BlockingQueue<UserTweets> queue, AtomicInteger analyzed,
+				MentionsAggregator mentions) {
+			this.miner = new TopicTweetsMiner(topics);
+			this.queue = queue;
+			this.analyzed = analyzed;
+			this.mentions = mentions;
+		}
+
+		@Override
+		public Void call() throws InterruptedException {
+			try {
+				while (running) {
+					UserTweets tweets = queue.poll(1, TimeUnit.SECONDS);
+					if (tweets == UserTweets.END)
+						break;
+					if (tweets == null)
+						continue;
+					analyzeUser(miner, mentions, tweets.userId, tweets.text);
+					analyzed.incrementAndGet();
+				}
+			} catch (RuntimeException e) {
+				// the scan would wait for this worker forever otherwise
+				running = false;
+				throw e;
+			}
+			return null;
+		}
+	}
 }
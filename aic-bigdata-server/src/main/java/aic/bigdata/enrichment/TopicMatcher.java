@@ -0,0 +1,168 @@
+package aic.bigdata.enrichment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton over a list of topics. Counts the matches of all
+ * topics in a single pass over the text, without creating substrings.
+ *
+ * Counting follows the original indexOf loop of TopicTweetsMiner: matches of
+ * a topic do not overlap (the next search starts after the previous match),
+ * a match only counts if it is not preceded or followed by a letter, and the
+ * preceding character is only checked if it lies after the previous match.
+ */
+public class TopicMatcher {
+
+	private static class Node {
+		char[] keys = new char[0];
+		Node[] next = new Node[0];
+		Node fail;
+		// patterns ending here, including those of the fail chain
+		int[] outputs = new int[0];
+
+		Node get(char c) {
+			int i = Arrays.binarySearch(keys, c);
+			return i >= 0 ? next[i] : null;
+		}
+
+		Node add(char c) {
+			int i = Arrays.binarySearch(keys, c);
+			if (i >= 0)
+				return next[i];
+			i = -i - 1;
+			Node n = new Node();
+			keys = insert(keys, i, c);
+			Node[] grown = new Node[next.length + 1];
+			System.arraycopy(next, 0, grown, 0, i);
+			grown[i] = n;
+			System.arraycopy(next, i, grown, i + 1, next.length - i);
+			next = grown;
+			return n;
+		}
+
+		private static char[] insert(char[] a, int i, char c) {
+			char[] grown = new char[a.length + 1];
+			System.arraycopy(a, 0, grown, 0, i);
+			grown[i] = c;
+			System.arraycopy(a, i, grown, i + 1, a.length - i);
+			return grown;
+		}
+	}
+
+	private final Node root = new Node();
+	// distinct pattern -> its length
+	private final int[] patternLength;
+	// topic index -> distinct pattern, -1 for empty topics
+	private final int[] topicPattern;
+
+	public TopicMatcher(List<String> topics) {
+		Map<String, Integer> patterns = new HashMap<String, Integer>();
+		List<Integer> lengths = new ArrayList<Integer>();
+		topicPattern = new int[topics.size()];
+
+		for (int t = 0; t < topics.size(); t++) {
+			String topic = topics.get(t);
+			if (topic.isEmpty()) {
+				topicPattern[t] = -1;
+				continue;
+			}
+			Integer p = patterns.get(topic);
+			if (p == null) {
+				p = lengths.size();
+				patterns.put(topic, p);
+				lengths.add(topic.length());
+
+				Node n = root;
+				for (int i = 0; i < topic.length(); i++) {
+					n = n.add(topic.charAt(i));
+				}
+				n.outputs = new int[] { p };
+			}
+			topicPattern[t] = p;
+		}
+
+		patternLength = new int[lengths.size()];
+		for (int i = 0; i < patternLength.length; i++) {
+			patternLength[i] = lengths.get(i);
+		}
+
+		buildFailLinks();
+	}
+
+	private void buildFailLinks() {
+		Queue<Node> queue = new ArrayDeque<Node>();
+		root.fail = root;
+		for (Node child : root.next) {
+			child.fail = root;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			Node n = queue.poll();
+			for (int i = 0; i < n.keys.length; i++) {
+				char c = n.keys[i];
+				Node child = n.next[i];
+				Node f = n.fail;
+				while (f != root && f.get(c) == null) {
+					f = f.fail;
+				}
+				Node target = f.get(c);
+				child.fail = (target != null && target != child) ? target : root;
+				if (child.fail.outputs.length > 0) {
+					int[] merged = Arrays.copyOf(child.outputs, child.outputs.length + child.fail.outputs.length);
+					System.arraycopy(child.fail.outputs, 0, merged, child.outputs.length, child.fail.outputs.length);
+					child.outputs = merged;
+				}
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * Counts the word matches of every topic, up to limit per topic.
+	 *
+	 * @return number of matches per topic, in the order of the topic list
+	 */
+	public int[] countMatches(String text, int limit) {
+		int[] counts = new int[patternLength.length];
+		// end of the last match of each pattern, counted or not
+		int[] lastEnd = new int[patternLength.length];
+		int done = 0;
+
+		Node n = root;
+		for (int i = 0; i < text.length() && done < counts.length; i++) {
+			char c = text.charAt(i);
+			Node next = n.get(c);
+			while (next == null && n != root) {
+				n = n.fail;
+				next = n.get(c);
+			}
+			n = next != null ? next : root;
+
+			for (int p : n.outputs) {
+				int start = i + 1 - patternLength[p];
+				if (start < lastEnd[p] || counts[p] >= limit)
+					continue;
+				boolean startLetter = start > lastEnd[p] && Character.isLetter(text.charAt(start - 1));
+				boolean endLetter = i + 1 < text.length() && Character.isLetter(text.charAt(i + 1));
+				lastEnd[p] = i + 1;
+				if (!startLetter && !endLetter) {
+					counts[p]++;
+					if (counts[p] == limit)
+						done++;
+				}
+			}
+		}
+
+		int[] result = new int[topicPattern.length];
+		for (int t = 0; t < topicPattern.length; t++) {
+			result[t] = topicPattern[t] == -1 ? 0 : counts[topicPattern[t]];
+		}
+		return result;
+	}
+}
@@ -11,6 +11,7 @@ import java.util.List;
  */
 public class TopicTweetsMiner {
 	private List<String> topics;
+	private TopicMatcher matcher;
 	
 	/* 
 	 * Number of times a topic word has to appear in tweets to 
@@ -20,6 +21,19 @@ public class TopicTweetsMiner {
 
 	public TopicTweetsMiner(List<String> topics) {
 		this.topics = topics;
+		this.matcher = new TopicMatcher(topics);
+	}
+	
+	public Integer getInterestThreshold() {
+		return interestThreshold;
+	}
+	
+	/**
+	 * Counts how often each topic is mentioned, in the order of the topic list.
+	 * Counts stop at the interest threshold.
+	 */
+	public int[] countTopics(String tweets) {
+		return matcher.countMatches(tweets, interestThreshold);
 	}
 	
 	//additional method, in case there is some other mining/processing stuff to do
@@ -30,42 +44,15 @@ public class TopicTweetsMiner {
 	private List<String> mineTweetsContents(String concatTweet) {
 		List<String> interestedTopics = new ArrayList<String>();
 
+		//a topic only counts as a word, not as a part of another word
+		//(e.g. searching for 'car' and getting 'care'), see TopicMatcher
+		int[] counts = countTopics(concatTweet);
 		for(int i=0; i<topics.size(); i++) {
-			String substrRem = concatTweet;
-			String substrFirst = "";
-			int count = 0;
-			int lastIndex = concatTweet.indexOf(topics.get(i));
-			
-			while(lastIndex != -1 && count<interestThreshold) {
-				substrFirst = substrRem.substring(0, lastIndex);
-				substrRem = substrRem.substring(lastIndex+topics.get(i).length());
-
-				lastIndex = substrRem.indexOf(topics.get(i));
-				
-				boolean isStartLetter = false;
-				boolean isEndLetter = false;
-				
-				//check, if letter after and before the match is another letter
-				//done to avoid matching similar words (e.g. searching for 'car' and getting 'care')
-				if(substrRem.length()>0 && Character.isLetter(substrRem.charAt(0))) {
-					isEndLetter = true;
-				}
-				
-				if(substrFirst.length()>0 && Character.isLetter(substrFirst.charAt(substrFirst.length()-1))) {
-					isStartLetter = true;
-				}
-					
-				if(!isStartLetter && !isEndLetter) {
-					count++;
-				}
-			}
-			
-			if(count >= interestThreshold) {
+			if(counts[i] >= interestThreshold) {
 				interestedTopics.add(topics.get(i));
 				//System.out.println("user is interested in: "+topics.get(i)+" *** all latest tweets: "+concatTweet);
 				//System.out.println("----------------");
 			}
-			
 		}
 		
 		return interestedTopics;
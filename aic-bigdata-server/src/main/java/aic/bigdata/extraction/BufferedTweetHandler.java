@@ -0,0 +1,23 @@
+package aic.bigdata.extraction;
+
+/**
+ * A TweetHandler that buffers its output. Providers call close() once they
+ * are done, so nothing is lost on shutdown.
+ */
+public interface BufferedTweetHandler extends TweetHandler {
+
+	/**
+	 * Writes everything buffered so far.
+	 * 
+	 * @return false, if anything handled since the last call of flush() could
+	 *         not be written and was dropped, also by an automatic flush in
+	 *         between
+	 */
+	public boolean flush();
+
+	/**
+	 * Flushes and releases all resources. The handler must not be used
+	 * afterwards.
+	 */
+	public void close();
+}
@@ -2,11 +2,17 @@ package aic.bigdata.extraction;
 
 import java.sql.SQLException;
 
+import org.apache.commons.lang3.StringUtils;
+
 import aic.bigdata.database.MongoDatabase;
 import aic.bigdata.database.SqlDatabase;
+import aic.bigdata.extraction.handler.RollingFileWriter;
 import aic.bigdata.extraction.handler.TweetToConsolePrinter;
+import aic.bigdata.extraction.handler.TweetToFileHandler;
+import aic.bigdata.extraction.handler.TweetToJSONHandler;
 import aic.bigdata.extraction.handler.TweetToMongoDBHandler;
 import aic.bigdata.extraction.handler.UserToDBHandler;
+import aic.bigdata.extraction.provider.FileTweetProvider;
 import aic.bigdata.extraction.provider.MongoDbTweetProvider;
 import aic.bigdata.server.ServerConfig;
 import aic.bigdata.server.TwitterStreamJob;
@@ -25,13 +31,21 @@ public class ExtractionRunner {
 
 	private static TweetProvider CreateMongoDbTweetProvier() {
 		MongoDatabase b = new MongoDatabase(config);
-		MongoDbTweetProvider provider = new MongoDbTweetProvider(b);
+		MongoDbTweetProvider provider = new MongoDbTweetProvider(b, config.getMongoReplayParallelism(),
+				config.isMongoReplayOrdered(), config.isMongoReplayDecodeBson());
+		if (!StringUtils.isEmpty(config.getMongoReplayCheckpoint()))
+			provider.enableCheckpoints(config.getMongoReplayCheckpoint(), config.getMongoReplayCheckpointInterval());
 		return provider;
 	}
 
+	private static TweetProvider CreateFileTweetProvider() {
+		return new FileTweetProvider(config.getReplayFiles(), config.getReplayParallelism());
+	}
+
 	private static TweetHandler CreateTweetToMongoDBHandler() {
 		MongoDatabase b = new MongoDatabase(config);
-		TweetHandler handler = new TweetToMongoDBHandler(b);
+		TweetHandler handler = new TweetToMongoDBHandler(b, config.getMongoBulkSize(),
+				config.getMongoBulkFlushInterval());
 		return handler;
 	}
 
@@ -40,7 +54,7 @@ public class ExtractionRunner {
 		TweetHandler handler = null;
 		try {
 			db = new SqlDatabase(config);
-			handler = new UserToDBHandler(db);
+			handler = new UserToDBHandler(db, config.getSqlBatchSize(), config.getSqlBatchFlushInterval());
 		} catch (SQLException e) {
 			e.printStackTrace();
 			System.err.println("Error creating UserToDBHandler");
@@ -48,11 +62,24 @@ public class ExtractionRunner {
 		return handler;
 	}
 
+	private static TweetHandler CreateTweetToFileHandler() {
+		RollingFileWriter out = new RollingFileWriter(config.getOutputFile(), config.getOutputMaxBytes(),
+				config.getOutputMaxAge(), config.isOutputGzip(), config.getOutputFlushInterval());
+		return new TweetToFileHandler(out);
+	}
+
+	private static TweetHandler CreateTweetToJSONHandler() {
+		RollingFileWriter out = new RollingFileWriter(config.getOutputJSON(), config.getOutputMaxBytes(),
+				config.getOutputMaxAge(), config.isOutputGzip(), config.getOutputFlushInterval());
+		return new TweetToJSONHandler(config.getOutputJSON(), out);
+	}
+
 	public static void main(String[] args) {
 		TweetProvider p = CreateTweetProviderForTwitterExtraction();
 		// TweetProvider p = CreateMongoDbTweetProvier();
-		// p.addTweetHandler(new TweetToFileHandler(config.getOutputFile()));
-		// p.addTweetHandler(new TweetToJSONHandler(config.getOutputJSON()));
+		// TweetProvider p = CreateFileTweetProvider();
+		// p.addTweetHandler(CreateTweetToFileHandler());
+		// p.addTweetHandler(CreateTweetToJSONHandler());
 
 		TweetHandler handler = CreateUserToDBHandler();
 		TweetHandler handler2 = CreateTweetToMongoDBHandler();
@@ -1,8 +1,13 @@
 package aic.bigdata.extraction;
 
+import org.apache.commons.lang3.StringUtils;
+
+import aic.bigdata.database.GraphBatchImporter;
 import aic.bigdata.database.GraphDatabase;
 import aic.bigdata.database.MongoDatabase;
+import aic.bigdata.extraction.handler.TweetToNeo4JBatchHandler;
 import aic.bigdata.extraction.handler.TweetToNeo4JHandler;
+import aic.bigdata.extraction.provider.FileTweetProvider;
 import aic.bigdata.extraction.provider.MongoDbTweetProvider;
 import aic.bigdata.server.ServerConfig;
 import aic.bigdata.server.TwitterStreamJob;
@@ -16,19 +21,44 @@ public class Neo4JExtractionRunner {
 
 	private static TweetProvider CreateMongoDbTweetProvider() {
 		MongoDatabase b = new MongoDatabase(config);
-		MongoDbTweetProvider provider = new MongoDbTweetProvider(b);
+		MongoDbTweetProvider provider = new MongoDbTweetProvider(b, config.getMongoReplayParallelism(),
+				config.isMongoReplayOrdered(), config.isMongoReplayDecodeBson());
+		if (!StringUtils.isEmpty(config.getMongoReplayCheckpoint()))
+			provider.enableCheckpoints(config.getMongoReplayCheckpoint(), config.getMongoReplayCheckpointInterval());
 		return provider;
 	}
 
+	private static TweetProvider CreateFileTweetProvider() {
+		return new FileTweetProvider(config.getReplayFiles(), config.getReplayParallelism());
+	}
+
 	private static TweetHandler CreateTweetToNeo4JHandler() {
 		TweetHandler handler = new TweetToNeo4JHandler(config, GraphDatabase.getInstance());
 		return handler;
 	}
 
+	private static TweetHandler CreateTweetToNeo4JBatchHandler() {
+		TweetHandler handler = new TweetToNeo4JBatchHandler(new GraphBatchImporter(config));
+		return handler;
+	}
+
+	/**
+	 * Pass "batch" (or set neo4j.batchImport) for an offline import into an
+	 * empty database, otherwise tweets are added incrementally. The tweets are
+	 * read from aic.bigdata.replay.files if set, otherwise from MongoDB.
+	 * 
+	 * The batch import writes nothing before the end, so it cannot be combined
+	 * with mongo.replay.checkpoint.
+	 */
 	public static void main(String[] args) {
-		TweetProvider p = CreateMongoDbTweetProvider();
+		boolean batch = (args.length > 0 && "batch".equals(args[0])) || config.isNeo4JBatchImport();
+		if (batch && config.getReplayFiles().isEmpty() && !StringUtils.isEmpty(config.getMongoReplayCheckpoint())) {
+			System.err.println("The batch import cannot resume from a checkpoint, unset mongo.replay.checkpoint");
+			return;
+		}
 
-		TweetHandler neo4jHandler = CreateTweetToNeo4JHandler();
+		TweetProvider p = config.getReplayFiles().isEmpty() ? CreateMongoDbTweetProvider() : CreateFileTweetProvider();
+		TweetHandler neo4jHandler = batch ? CreateTweetToNeo4JBatchHandler() : CreateTweetToNeo4JHandler();
 		p.addTweetHandler(neo4jHandler);
 
 		p.run();
@@ -0,0 +1,8 @@
+package aic.bigdata.extraction;
+
+/**
+ * A TweetHandler that works on the raw JSON message of a tweet, not only on
+ * the status. Providers that cannot deliver raw messages reject it.
+ */
+public interface RawTweetHandler extends TweetHandler {
+}
@@ -0,0 +1,200 @@
+package aic.bigdata.extraction;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+
+/**
+ * Parses every raw message once and hands the resulting status to all
+ * registered handlers. Each handler runs on its own worker thread behind a
+ * bounded queue, so a slow handler (e.g. mongodb or h2) does not hold back the
+ * others. A full queue blocks the dispatching thread. On shutdown buffered
+ * handlers are closed by their worker.
+ */
+public class TweetDispatcher {
+
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+	private final int queueSize;
+	private final List<HandlerWorker> workers = new ArrayList<HandlerWorker>();
+	private boolean started = false;
+
+	public TweetDispatcher() {
+		this(DEFAULT_QUEUE_SIZE);
+	}
+
+	public TweetDispatcher(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public void addTweetHandler(TweetHandler handler) {
+		if (started)
+			throw new IllegalStateException("handlers have to be added before the dispatcher is started");
+		workers.add(new HandlerWorker(handler, queueSize));
+	}
+
+	public void start() {
+		if (started)
+			return;
+		started = true;
+		for (HandlerWorker w : workers) {
+			w.thread.start();
+		}
+	}
+
+	/**
+	 * Parses the message and queues it for every handler.
+	 *
+	 * @return false, if the message is not a valid status
+	 */
+	public boolean dispatch(String msg) throws InterruptedException {
+		Status status;
+		try {
+			status = TwitterObjectFactory.createStatus(msg);
+		} catch (TwitterException e) {
+			System.err.println("Error creating Status Object: " + msg);
+			e.printStackTrace();
+			return false;
+		}
+		dispatch(status, msg);
+		return true;
+	}
+
+	public void dispatch(Status status, String msg) throws InterruptedException {
+		TweetMessage m = new TweetMessage(status, msg);
+		for (HandlerWorker w : workers) {
+			w.queue.put(m);
+		}
+	}
+
+	/**
+	 * Waits until every worker has processed the messages queued so far and
+	 * flushed its handler, if it is buffered. Afterwards everything dispatched
+	 * before the call has been written, unless false is returned.
+	 * 
+	 * @return false, if a handler failed on a message since the last flush or
+	 *         could not flush
+	 */
+	public boolean flush() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(workers.size());
+		AtomicBoolean ok = new AtomicBoolean(true);
+		TweetMessage m = new TweetMessage(latch, ok);
+		for (HandlerWorker w : workers) {
+			w.queue.put(m);
+		}
+		latch.await();
+		return ok.get();
+	}
+
+	/**
+	 * Lets every worker process its remaining queue and waits for them to
+	 * finish.
+	 */
+	public void shutdown() {
+		for (HandlerWorker w : workers) {
+			try {
+				w.queue.put(TweetMessage.END);
+			} catch (InterruptedException e) {
+				w.thread.interrupt();
+			}
+		}
+		for (HandlerWorker w : workers) {
+			try {
+				w.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private static class TweetMessage {
+		static final TweetMessage END = new TweetMessage((Status) null, null);
+
+		final Status status;
+		final String raw;
+		// set for flush requests only
+		final CountDownLatch flushed;
+		final AtomicBoolean flushOk;
+
+		TweetMessage(Status status, String raw) {
+			this.status = status;
+			this.raw = raw;
+			this.flushed = null;
+			this.flushOk = null;
+		}
+
+		TweetMessage(CountDownLatch flushed, AtomicBoolean flushOk) {
+			this.status = null;
+			this.raw = null;
+			this.flushed = flushed;
+			this.flushOk = flushOk;
+		}
+	}
+
+	private static class HandlerWorker implements Runnable {
+		final TweetHandler handler;
+		final BlockingQueue<TweetMessage> queue;
+		final Thread thread;
+		// a message failed since the last flush, only used by the worker thread
+		boolean failed = false;
+
+		HandlerWorker(TweetHandler handler, int queueSize) {
+			this.handler = handler;
+			this.queue = new ArrayBlockingQueue<TweetMessage>(queueSize);
+			this.thread = new Thread(this, "TweetHandler-" + handler.getClass().getSimpleName());
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				TweetMessage m;
+				try {
+					m = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (m == TweetMessage.END) {
+					if (handler instanceof BufferedTweetHandler)
+						((BufferedTweetHandler) handler).close();
+					return;
+				}
+				if (m.flushed != null) {
+					boolean ok = !failed;
+					try {
+						if (handler instanceof BufferedTweetHandler && !((BufferedTweetHandler) handler).flush())
+							ok = false;
+					} catch (RuntimeException e) {
+						System.err.println("Error flushing " + handler.getClass().getSimpleName());
+						e.printStackTrace();
+						ok = false;
+					}
+					failed = false;
+					if (!ok)
+						m.flushOk.set(false);
+					m.flushed.countDown();
+					continue;
+				}
+				try {
+					handler.HandleStatusTweet(m.status, m.raw);
+				} catch (UnknownHostException e) {
+					System.err.println("Error with mongoDB/collections: " + m.raw);
+					e.printStackTrace();
+					failed = true;
+				} catch (RuntimeException e) {
+					System.err.println("Error in " + handler.getClass().getSimpleName() + ": " + m.raw);
+					e.printStackTrace();
+					failed = true;
+				}
+			}
+		}
+	}
+}
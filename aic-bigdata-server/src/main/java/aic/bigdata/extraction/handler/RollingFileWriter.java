@@ -0,0 +1,204 @@
+package aic.bigdata.extraction.handler;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Long-lived buffered line writer for the file sinks. Without rotation and
+ * gzip it appends to the given path, like the sinks did before. Otherwise
+ * every segment gets its own file next to it, named after the time it was
+ * opened, e.g. output-20141203-142501.log.gz, and a new segment is started
+ * once maxBytes (uncompressed) are written or the segment is older than
+ * maxAgeMs. A background thread flushes the buffer every flushIntervalMs.
+ */
+public class RollingFileWriter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File base;
+	private final long maxBytes;
+	private final long maxAge;
+	private final boolean gzip;
+	private ScheduledExecutorService flusher;
+
+	private Writer out;
+	private File current;
+	// uncompressed bytes in the current file, also the ones of earlier runs
+	private long written;
+	private long lineStart;
+	private long opened;
+	// a flush failed since the last flush() call
+	private boolean failed = false;
+
+	/**
+	 * @param maxBytes
+	 *            uncompressed bytes per segment, 0 for no size limit
+	 * @param maxAgeMs
+	 *            time after which a new segment is started, 0 for no limit
+	 * @param flushIntervalMs
+	 *            maximum time a line stays in the buffer, 0 to flush only
+	 *            when the buffer is full
+	 */
+	public RollingFileWriter(String path, long maxBytes, long maxAgeMs, boolean gzip, long flushIntervalMs) {
+		this.base = new File(path);
+		this.maxBytes = maxBytes;
+		this.maxAge = maxAgeMs;
+		this.gzip = gzip;
+		if (flushIntervalMs > 0) {
+			flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "RollingFileWriter-flush");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			flusher.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					write();
+				}
+			}, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Writes the line and a line break, starting a new segment if the current
+	 * one is full or too old.
+	 * 
+	 * @return true, if the line is the first one of a new segment
+	 */
+	public synchronized boolean writeLine(String line) throws IOException {
+		if (out != null && isRotating()
+				&& ((maxBytes > 0 && written >= maxBytes) || (maxAge > 0 && System.currentTimeMillis() - opened >= maxAge)))
+			closeSegment();
+		boolean opening = out == null;
+		if (opening)
+			openSegment();
+		lineStart = written;
+		out.write(line);
+		out.write('\n');
+		written += utf8Length(line) + 1;
+		return opening;
+	}
+
+	/**
+	 * @return uncompressed byte offset of the last line written in the
+	 *         current file
+	 */
+	public synchronized long getLineStart() {
+		return lineStart;
+	}
+
+	/**
+	 * @return false, if the buffer could not be written, also by the
+	 *         background thread since the last call
+	 */
+	public synchronized boolean flush() {
+		write();
+		boolean ok = !failed;
+		failed = false;
+		return ok;
+	}
+
+	/**
+	 * Closes the current segment. The writer must not be used afterwards.
+	 */
+	public void close() {
+		if (flusher != null)
+			flusher.shutdown();
+		synchronized (this) {
+			try {
+				closeSegment();
+			} catch (IOException e) {
+				System.err.println("Error closing " + current);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return the file that is currently written, null before the first line
+	 */
+	public synchronized File getCurrentFile() {
+		return current;
+	}
+
+	private synchronized void write() {
+		if (out == null)
+			return;
+		try {
+			out.flush();
+		} catch (IOException e) {
+			System.err.println("Error flushing " + current);
+			e.printStackTrace();
+			failed = true;
+		}
+	}
+
+	private boolean isRotating() {
+		return maxBytes > 0 || maxAge > 0;
+	}
+
+	private void openSegment() throws IOException {
+		current = isRotating() || gzip ? nextSegmentFile() : base;
+		OutputStream stream = new FileOutputStream(current, current == base);
+		// sync flush, so flush() makes the lines readable in the file
+		if (gzip)
+			stream = new GZIPOutputStream(stream, BUFFER_SIZE, true);
+		out = new BufferedWriter(new OutputStreamWriter(stream, UTF8), BUFFER_SIZE);
+		opened = System.currentTimeMillis();
+		written = current == base ? current.length() : 0;
+	}
+
+	private void closeSegment() throws IOException {
+		if (out == null)
+			return;
+		out.close();
+		out = null;
+	}
+
+	private static int utf8Length(String s) {
+		int n = s.length();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x800)
+				// a surrogate pair is 4 bytes for 2 chars
+				n += Character.isSurrogate(c) ? 1 : 2;
+			else if (c >= 0x80)
+				n++;
+		}
+		return n;
+	}
+
+	private File nextSegmentFile() {
+		String name = base.getName();
+		int dot = name.lastIndexOf('.');
+		String prefix = dot > 0 ? name.substring(0, dot) : name;
+		String extension = dot > 0 ? name.substring(dot) : "";
+		if (gzip)
+			extension += ".gz";
+		String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+
+		File dir = base.getAbsoluteFile().getParentFile();
+		File f = new File(dir, prefix + "-" + stamp + extension);
+		for (int i = 1; f.exists(); i++) {
+			f = new File(dir, prefix + "-" + stamp + "-" + i + extension);
+		}
+		return f;
+	}
+}
@@ -0,0 +1,199 @@
+package aic.bigdata.extraction.handler;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import twitter4j.Status;
+import aic.bigdata.database.GraphDatabase;
+import aic.bigdata.database.LongPairLongMap;
+import aic.bigdata.enrichment.MentionsAggregator;
+import aic.bigdata.enrichment.TopicTweetsMiner;
+import aic.bigdata.extraction.BufferedTweetHandler;
+
+/**
+ * Keeps the topic interests of users up to date while tweets are streamed,
+ * instead of waiting for the next TopicAnalyzer run.
+ *
+ * For every user the topic mentions of the latest windowSize tweets are
+ * counted. When a topic reaches the interest threshold of TopicTweetsMiner
+ * within that window for the first time, the (user)-[mentions]->(topic) count
+ * is incremented, the same as one analysis run would do. Later crossings of
+ * the threshold are not counted again. Tweets without topics are not
+ * stored, users without any topic in their window are forgotten. So are users
+ * that did not tweet for maxIdle, their window would only shrink once they
+ * tweet again.
+ */
+public class TopicInterestHandler implements BufferedTweetHandler {
+
+	private GraphDatabase graph;
+	private List<String> topics;
+	private TopicTweetsMiner miner;
+	private MentionsAggregator mentions;
+	private int windowSize;
+	private long flushInterval;
+	private long maxIdle;
+	private long lastFlush = System.currentTimeMillis();
+
+	// access ordered, the users idle the longest come first
+	// user id, topic index -> 1 for the interests already counted
+	private LongPairLongMap counted = new LongPairLongMap();
+	private Map<Long, UserWindow> windows = new LinkedHashMap<Long, UserWindow>(16, 0.75f, true);
+
+	/**
+	 * @param topics
+	 *            lowercase topic names, see
+	 *            MongoDatabase.readAllTopicsInLowercase()
+	 * @param windowSize
+	 *            number of latest tweets per user that are considered
+	 * @param flushIntervalMs
+	 *            maximum time a new interest waits before it is written
+	 * @param maxIdleMs
+	 *            time after the last tweet of a user when the window is
+	 *            dropped, checked on flush
+	 */
+	public TopicInterestHandler(GraphDatabase graph, List<String> topics, int windowSize, long flushIntervalMs,
+			long maxIdleMs) {
+		this.graph = graph;
+		this.topics = topics;
+		this.miner = new TopicTweetsMiner(topics);
+		this.mentions = new MentionsAggregator(graph, 1000);
+		this.windowSize = windowSize;
+		this.flushInterval = flushIntervalMs;
+		this.maxIdle = maxIdleMs;
+	}
+
+	@Override
+	public synchronized void HandleStatusTweet(Status status, String tweet) {
+		long userId = status.getUser().getId();
+		UserWindow window = windows.get(userId);
+
+		// same separator as MongoDatabase.readLatestTweetsAsOneString
+		int[] counts = miner.countTopics(" " + status.getText());
+		int[] matched = matchedTopics(counts);
+
+		if (window == null) {
+			if (matched.length == 0)
+				return;
+			window = new UserWindow(topics.size());
+			windows.put(userId, window);
+		}
+
+		window.lastSeen = System.currentTimeMillis();
+		window.tweets++;
+		window.evict(window.tweets - windowSize);
+
+		if (matched.length > 0) {
+			int[] matchedCounts = new int[matched.length];
+			for (int i = 0; i < matched.length; i++) {
+				matchedCounts[i] = counts[matched[i]];
+			}
+			window.matches.add(new TweetTopics(window.tweets, matched, matchedCounts));
+
+			int threshold = miner.getInterestThreshold();
+			for (int t : matched) {
+				int before = window.counts[t];
+				window.counts[t] += counts[t];
+				if (before < threshold && window.counts[t] >= threshold && !counted.containsKey(userId, t)) {
+					counted.put(userId, t, 1);
+					graph.addUser(status.getUser());
+					mentions.addMention(userId, topics.get(t));
+				}
+			}
+		}
+
+		if (window.matches.isEmpty())
+			windows.remove(userId);
+
+		if (System.currentTimeMillis() - lastFlush > flushInterval)
+			flush();
+	}
+
+	@Override
+	public void HandleTweet(String tweet) {
+		System.out.println("TopicInterestHandler: Warning: Somebody called HandleTweet on me, but I won't do anything with the tweet you gave me");
+	}
+
+	/**
+	 * Failed writes throw, see MentionsAggregator.
+	 */
+	@Override
+	public synchronized boolean flush() {
+		mentions.flush();
+		lastFlush = System.currentTimeMillis();
+		evictIdle(lastFlush - maxIdle);
+		return true;
+	}
+
+	@Override
+	public void close() {
+		flush();
+	}
+
+	/**
+	 * @return number of users with at least one topic in their window
+	 */
+	public synchronized int getTrackedUsers() {
+		return windows.size();
+	}
+
+	private void evictIdle(long lastSeenBefore) {
+		Iterator<UserWindow> it = windows.values().iterator();
+		while (it.hasNext() && it.next().lastSeen < lastSeenBefore) {
+			it.remove();
+		}
+	}
+
+	private static int[] matchedTopics(int[] counts) {
+		int n = 0;
+		for (int c : counts) {
+			if (c > 0)
+				n++;
+		}
+		int[] matched = new int[n];
+		n = 0;
+		for (int t = 0; t < counts.length; t++) {
+			if (counts[t] > 0)
+				matched[n++] = t;
+		}
+		return matched;
+	}
+
+	private static class TweetTopics {
+		final int tweet;
+		final int[] topics;
+		final int[] counts;
+
+		TweetTopics(int tweet, int[] topics, int[] counts) {
+			this.tweet = tweet;
+			this.topics = topics;
+			this.counts = counts;
+		}
+	}
+
+	private static class UserWindow {
+		// tweets seen since the user is tracked
+		int tweets = 0;
+		long lastSeen;
+		int[] counts;
+		ArrayDeque<TweetTopics> matches = new ArrayDeque<TweetTopics>();
+
+		UserWindow(int topicCount) {
+			counts = new int[topicCount];
+		}
+
+		/**
+		 * Removes the counts of all tweets up to the given tweet number.
+		 */
+		void evict(int lastOutside) {
+			while (!matches.isEmpty() && matches.peekFirst().tweet <= lastOutside) {
+				TweetTopics old = matches.pollFirst();
+				for (int i = 0; i < old.topics.length; i++) {
+					counts[old.topics[i]] -= old.counts[i];
+				}
+			}
+		}
+	}
+}
@@ -1,9 +1,9 @@
 package aic.bigdata.extraction.handler;
 
-import aic.bigdata.extraction.TweetHandler;
+import aic.bigdata.extraction.RawTweetHandler;
 import twitter4j.Status;
 
-public class TweetToConsolePrinter implements TweetHandler {
+public class TweetToConsolePrinter implements RawTweetHandler {
 
 	@Override
 	public void HandleStatusTweet(Status status, String tweet) {
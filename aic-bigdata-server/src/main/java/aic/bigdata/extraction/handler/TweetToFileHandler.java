@@ -1,43 +1,67 @@
 package aic.bigdata.extraction.handler;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.IOException;
 
 import twitter4j.Status;
-import aic.bigdata.extraction.TweetHandler;
+import aic.bigdata.extraction.BufferedTweetHandler;
+import aic.bigdata.extraction.RawTweetHandler;
 
-public class TweetToFileHandler implements TweetHandler {
+/**
+ * Appends the tweets with a short summary line to a text file. The file stays
+ * open and is written through a buffer, see RollingFileWriter for rotation
+ * and gzip.
+ */
+public class TweetToFileHandler implements BufferedTweetHandler, RawTweetHandler {
 
-	private String path;
+	private RollingFileWriter out;
+	// a write failed since the last flush()
+	private boolean failed = false;
 
 	public TweetToFileHandler(String path) {
-		this.path = path;
+		this(new RollingFileWriter(path, 0, 0, false, 0));
+	}
+
+	public TweetToFileHandler(RollingFileWriter out) {
+		this.out = out;
 	}
 
 	@Override
 	public void HandleStatusTweet(Status status, String tweet) {
-		PrintStream out;
+		StringBuilder summary = new StringBuilder();
+		summary.append(status.getUser().getName()).append(" : ");
+		summary.append(status.isRetweet() ? " RT " : "");
+		summary.append(status.isFavorited() ? " FV " : "");
+		summary.append(status.getInReplyToScreenName() != null ? " InReplyToUserId: "
+				+ status.getInReplyToScreenName() : " ");
 		try {
-			out = new PrintStream(new FileOutputStream(path, true));
-
-			out.println(tweet);
-			out.print(status.getUser().getName() + " : ");
-			out.print(status.isRetweet() ? " RT " : "");
-			out.print(status.isFavorited() ? " FV " : "");
-			out.println(status.getInReplyToScreenName() != null ? " InReplyToUserId: " + status.getInReplyToScreenName()
-					: " ");
-
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
+			// one call, so a rotation does not separate the two lines
+			out.writeLine(tweet + "\n" + summary);
+		} catch (IOException e) {
 			e.printStackTrace();
+			failed = true;
 		}
 	}
 
 	@Override
 	public void HandleTweet(String tweet) {
-		// TODO Auto-generated method stub
+		try {
+			out.writeLine(tweet);
+		} catch (IOException e) {
+			e.printStackTrace();
+			failed = true;
+		}
+	}
+
+	@Override
+	public boolean flush() {
+		boolean ok = out.flush() && !failed;
+		failed = false;
+		return ok;
+	}
 
+	@Override
+	public void close() {
+		out.close();
 	}
 
 }
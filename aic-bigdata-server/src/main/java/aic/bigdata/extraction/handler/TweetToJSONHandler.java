@@ -1,68 +1,106 @@
 package aic.bigdata.extraction.handler;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
-import java.nio.file.Path;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 
-import twitter4j.JSONArray;
-import twitter4j.JSONException;
-import twitter4j.JSONObject;
 import twitter4j.Status;
-import aic.bigdata.extraction.TweetHandler;
+import aic.bigdata.extraction.BufferedTweetHandler;
+import aic.bigdata.extraction.RawTweetHandler;
 
-public class TweetToJSONHandler implements TweetHandler {
+/**
+ * Appends the raw tweets as newline delimited JSON, one tweet per line, as
+ * they came from the stream, without parsing them again. The segments are
+ * rotated by a RollingFileWriter.
+ *
+ * For every new segment and every INDEX_INTERVAL tweets a tab separated line
+ * is appended to the index file (path + ".index"): segment file, number of
+ * tweets this handler wrote before the tweet, created_at of the tweet in ms
+ * and the byte offset of its line in the segment (uncompressed for gzip
+ * segments). Readers can use it to find the segments of a time range and to
+ * start reading inside a segment near a given time.
+ *
+ * Needs the raw messages, so the MongoDbTweetProvider rejects it with
+ * mongo.replay.decodeBson.
+ */
+public class TweetToJSONHandler implements BufferedTweetHandler, RawTweetHandler {
 
-	private String path;
-	private JSONArray array = new JSONArray();
-	private int counter = 0;
-	private int page = 0;
+	private static final int INDEX_INTERVAL = 10000;
+
+	private RollingFileWriter out;
+	// a write failed since the last flush()
+	private boolean failed = false;
+	private String indexPath;
+	private long count = 0;
+	// count at the last index line
+	private long indexed = 0;
 
 	public TweetToJSONHandler(String path) {
-		this.path = path;
+		this(path, new RollingFileWriter(path, 0, 0, false, 0));
+	}
+
+	/**
+	 * @param path
+	 *            the path the writer was created with, the index is written
+	 *            next to it
+	 */
+	public TweetToJSONHandler(String path, RollingFileWriter out) {
+		this.out = out;
+		this.indexPath = path + ".index";
 	}
 
 	@Override
 	public void HandleStatusTweet(Status status, String tweet) {
-		if (counter > 100) {
-			PrintStream out;
-			try {
-				String file = path + "_" + page + ".json";
-				Path p = java.nio.file.Paths.get(file);
-				while (java.nio.file.Files.exists(p)) {
-					page++;
-					file = path + "_" + page + ".json";
-					p = java.nio.file.Paths.get(file);
-				}
-
-				out = new PrintStream(new FileOutputStream(file));
-				out.print(array.toString());
-				System.out.println("write to file: " + file);
-				array = new JSONArray();
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			}
-			counter = 0;
-			page++;
+		if (tweet == null)
+			return;
+		try {
+			if (out.writeLine(tweet) || count - indexed >= INDEX_INTERVAL)
+				writeIndex(status.getCreatedAt() != null ? status.getCreatedAt().getTime() : System
+						.currentTimeMillis());
+			count++;
+		} catch (IOException e) {
+			e.printStackTrace();
+			failed = true;
 		}
+	}
 
-		JSONObject obj;
+	@Override
+	public void HandleTweet(String tweet) {
 		try {
-			obj = new JSONObject(tweet);
-			array.put(obj);
-		} catch (JSONException e) {
-			// TODO Auto-generated catch block
+			if (out.writeLine(tweet) || count - indexed >= INDEX_INTERVAL)
+				writeIndex(System.currentTimeMillis());
+			count++;
+		} catch (IOException e) {
 			e.printStackTrace();
+			failed = true;
 		}
+	}
 
-		counter++;
-		System.out.println(tweet);
+	public long getCount() {
+		return count;
 	}
 
 	@Override
-	public void HandleTweet(String tweet) {
-		// TODO Auto-generated method stub
+	public boolean flush() {
+		boolean ok = out.flush() && !failed;
+		failed = false;
+		return ok;
+	}
+
+	@Override
+	public void close() {
+		out.close();
+	}
 
+	private void writeIndex(long createdAt) throws IOException {
+		indexed = count;
+		Writer index = new FileWriter(indexPath, true);
+		try {
+			index.write(out.getCurrentFile().getName() + "\t" + count + "\t" + createdAt + "\t" + out.getLineStart()
+					+ "\n");
+		} finally {
+			index.close();
+		}
 	}
 
 }
@@ -1,44 +1,156 @@
 package aic.bigdata.extraction.handler;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import aic.bigdata.database.MongoDatabase;
-import aic.bigdata.extraction.TweetHandler;
+import aic.bigdata.extraction.BufferedTweetHandler;
+import aic.bigdata.extraction.RawTweetHandler;
 import twitter4j.Status;
 
-public class TweetToMongoDBHandler implements TweetHandler {
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.util.JSON;
+
+/**
+ * Writes tweets to MongoDB. With a batch size greater than 1 the tweets are
+ * collected and written as unordered bulk inserts, flushed when the batch is
+ * full or the flush interval has passed. In that mode the unique "id" index
+ * drops duplicates, instead of a findOne per tweet. Otherwise checkTweetExists
+ * is asked first, see mongo.dedup.bloom.
+ */
+public class TweetToMongoDBHandler implements BufferedTweetHandler, RawTweetHandler {
 
 	private MongoDatabase mongodb;
 	private int tweetsLogged = 0;
 
+	private int batchSize;
+	private List<DBObject> batch;
+	private ScheduledExecutorService flusher;
+	// a write failed since the last flush()
+	private boolean failed = false;
+
 	public TweetToMongoDBHandler(MongoDatabase b) {
+		this(b, 1, 0);
+	}
+
+	/**
+	 * @param batchSize
+	 *            tweets per bulk insert, 1 writes every tweet directly
+	 * @param flushIntervalMs
+	 *            maximum time a tweet stays in the buffer, 0 to flush on size
+	 *            only
+	 */
+	public TweetToMongoDBHandler(MongoDatabase b, int batchSize, long flushIntervalMs) {
 		mongodb = b;
+		this.batchSize = batchSize;
+		if (batchSize > 1) {
+			batch = new ArrayList<DBObject>(batchSize);
+			if (flushIntervalMs > 0) {
+				flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "TweetToMongoDBHandler-flush");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				flusher.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						// an exception would cancel all further runs
+						try {
+							writeBatch();
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+						}
+					}
+				}, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+			}
+		}
 	}
 
 	@Override
 	public void HandleStatusTweet(Status status, String tweet)
 			throws UnknownHostException {
 
-		if (!mongodb.checkTweetExists(status)) {
+		if (isBatching()) {
+			addToBatch(tweet);
+		} else if (!mongodb.checkTweetExists(status)) {
 			internalHandleTweet(tweet);
 		}
 	}
 
 	@Override
 	public void HandleTweet(String tweet) {
-		internalHandleTweet(tweet);
+		if (isBatching()) {
+			addToBatch(tweet);
+		} else {
+			internalHandleTweet(tweet);
+		}
 	}
 
-	public int getCount() {
+	public synchronized int getCount() {
 		return this.tweetsLogged;
 	}
 
-	private void internalHandleTweet(String tweet) {
+	/**
+	 * Writes the batch. If that fails the batch is dropped, so an outage does
+	 * not let it grow without bound; replays can fill the gap, duplicates are
+	 * skipped by the unique "id" index.
+	 */
+	@Override
+	public synchronized boolean flush() {
+		writeBatch();
+		boolean ok = !failed;
+		failed = false;
+		return ok;
+	}
+
+	@Override
+	public void close() {
+		if (flusher != null)
+			flusher.shutdown();
+		flush();
+		mongodb.saveSeenTweets();
+	}
+
+	private boolean isBatching() {
+		return batchSize > 1;
+	}
+
+	private synchronized void addToBatch(String tweet) {
+		batch.add((DBObject) JSON.parse(tweet));
+		if (batch.size() >= batchSize)
+			writeBatch();
+	}
+
+	private synchronized void writeBatch() {
+		if (!isBatching() || batch.isEmpty())
+			return;
+		try {
+			tweetsLogged += this.mongodb.writeTweets(batch);
+		} catch (UnknownHostException | MongoException e) {
+			System.err.println("TweetToMongoDBHandler: Failed to write " + batch.size() + " tweets");
+			e.printStackTrace();
+			failed = true;
+		} finally {
+			batch.clear();
+		}
+	}
+
+	private synchronized void internalHandleTweet(String tweet) {
 		try {
 			this.mongodb.writeTweet(tweet);
 			tweetsLogged++;
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
+			failed = true;
 		}
 	}
 
@@ -0,0 +1,55 @@
+package aic.bigdata.extraction.handler;
+
+import aic.bigdata.database.GraphBatchImporter;
+import aic.bigdata.extraction.BufferedTweetHandler;
+import twitter4j.Status;
+import twitter4j.User;
+
+/**
+ * Batch counterpart of TweetToNeo4JHandler for offline imports. Nothing is
+ * visible in the graph before close() is called.
+ */
+public class TweetToNeo4JBatchHandler implements BufferedTweetHandler {
+
+	private GraphBatchImporter importer;
+	private boolean closed = false;
+
+	public TweetToNeo4JBatchHandler(GraphBatchImporter importer) {
+		this.importer = importer;
+	}
+
+	@Override
+	public void HandleStatusTweet(Status status, String tweet) {
+		User user = status.getUser();
+		importer.addUser(user);
+		if (status.isRetweet()) {
+			Status retweeted = status.getRetweetedStatus();
+			importer.addUser(retweeted.getUser());
+			importer.addRetweetsRelationship(user, retweeted.getUser());
+			HandleStatusTweet(retweeted, retweeted.getSource());
+		}
+	}
+
+	@Override
+	public void HandleTweet(String tweet) {
+		System.out.println("TweetToNeo4JBatchHandler: Warning: Somebody called HandleTweet on me, but I won't do anything with the tweet you gave me");
+	}
+
+	/**
+	 * @return always false, relationships can only be written once all counts
+	 *         are known, i.e. on close()
+	 */
+	@Override
+	public boolean flush() {
+		return false;
+	}
+
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		importer.finish();
+	}
+
+}
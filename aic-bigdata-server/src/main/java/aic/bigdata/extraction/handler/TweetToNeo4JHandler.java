@@ -1,7 +1,8 @@
 package aic.bigdata.extraction.handler;
 
 import aic.bigdata.database.GraphDatabase;
-import aic.bigdata.extraction.TweetHandler;
+import aic.bigdata.database.GraphWriteBatch;
+import aic.bigdata.extraction.BufferedTweetHandler;
 import aic.bigdata.server.ServerConfig;
 import twitter4j.Status;
 import twitter4j.User;
@@ -33,7 +34,7 @@ import org.neo4j.cypher.javacompat.ExecutionEngine;
 import org.neo4j.cypher.javacompat.ExecutionResult;
 import org.neo4j.graphdb.ResourceIterator;
 
-public class TweetToNeo4JHandler implements TweetHandler {
+public class TweetToNeo4JHandler implements BufferedTweetHandler {
 	private int tweetsLogged = 0;
 	private GraphDatabaseService graphDb;
 	private Index<Node> userIndex;
@@ -41,22 +42,24 @@ public class TweetToNeo4JHandler implements TweetHandler {
 	private ServerConfig config;
 	private ExecutionEngine cypherEngine;
 	private GraphDatabase graph;
+	private GraphWriteBatch batch;
 
 	public TweetToNeo4JHandler(ServerConfig config, GraphDatabase graph) {
 		this.config = config;
 		this.graph = graph;
+		this.batch = graph.newWriteBatch();
 	}
 	
 	@Override
 	public void HandleStatusTweet(Status status, String tweet) {
 		//System.out.println("TweetToNeo4JHandler: got tweet");
 		User user = status.getUser();
-		graph.addUser(user);
+		batch.addUser(user);
 		//addFriends(user);
 		if (status.isRetweet()) {
 			Status retweeted = status.getRetweetedStatus();
-			graph.addUser(retweeted.getUser());
-			graph.addRetweetsRelationship(user, retweeted.getUser()); //TODO SLOW
+			batch.addUser(retweeted.getUser());
+			batch.addRetweetsRelationship(user, retweeted.getUser());
 			//searchTweetForTopics(status); // ?
 			HandleStatusTweet(retweeted, retweeted.getSource());
 		}
@@ -70,4 +73,14 @@ public class TweetToNeo4JHandler implements TweetHandler {
 		System.out.println("TweetToNeo4JHandler: Warning: Somebody called HandleTweet on me, but I won't do anything with the tweet you gave me");
 	}
 
+	@Override
+	public boolean flush() {
+		return batch.flush();
+	}
+
+	@Override
+	public void close() {
+		batch.close();
+	}
+
 }
@@ -2,25 +2,86 @@ package aic.bigdata.extraction.handler;
 
 import java.net.UnknownHostException;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import twitter4j.Status;
 import aic.bigdata.database.SqlDatabase;
 import aic.bigdata.database.model.AicUser;
-import aic.bigdata.extraction.TweetHandler;
+import aic.bigdata.extraction.BufferedTweetHandler;
 
-public class UserToDBHandler implements TweetHandler {
+/**
+ * Writes the authors of tweets to the sql database. With a batch size greater
+ * than 1 the users are collected and upserted in one transaction, flushed when
+ * the batch is full or the flush interval has passed. A user tweeting several
+ * times within a batch is written once, with the latest profile.
+ */
+public class UserToDBHandler implements BufferedTweetHandler {
 
 	private SqlDatabase db;
 
+	private int batchSize;
+	private Map<Long, AicUser> batch;
+	private ScheduledExecutorService flusher;
+
+	private long written = 0;
+	private long writeTime = 0;
+	// a write failed since the last flush()
+	private boolean failed = false;
+
 	public UserToDBHandler(SqlDatabase b) {
+		this(b, 1, 0);
+	}
+
+	/**
+	 * @param batchSize
+	 *            users per upsert, 1 writes every user directly
+	 * @param flushIntervalMs
+	 *            maximum time a user stays in the buffer, 0 to flush on size
+	 *            only
+	 */
+	public UserToDBHandler(SqlDatabase b, int batchSize, long flushIntervalMs) {
 		db = b;
+		this.batchSize = batchSize;
+		if (batchSize > 1) {
+			batch = new LinkedHashMap<Long, AicUser>();
+			if (flushIntervalMs > 0) {
+				flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "UserToDBHandler-flush");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				flusher.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						// an exception would cancel all further runs
+						try {
+							writeBatch();
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+						}
+					}
+				}, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+			}
+		}
 	}
 
 	@Override
 	public void HandleStatusTweet(Status status, String tweet) throws UnknownHostException {
 
 		AicUser usr = new AicUser(status.getUser());
-		internalHandleTweet(usr);
+		if (batchSize > 1) {
+			addToBatch(usr);
+		} else {
+			internalHandleTweet(usr);
+		}
 	}
 
 	@Override
@@ -29,12 +90,53 @@ public class UserToDBHandler implements TweetHandler {
 
 	}
 
-	private void internalHandleTweet(AicUser user) {
+	@Override
+	public synchronized boolean flush() {
+		writeBatch();
+		boolean ok = !failed;
+		failed = false;
+		return ok;
+	}
+
+	@Override
+	public void close() {
+		if (flusher != null)
+			flusher.shutdown();
+		flush();
+		if (batchSize > 1) {
+			System.out.println("UserToDBHandler: wrote " + written + " users, "
+					+ (written * 1000 / Math.max(1, writeTime)) + " rows/s");
+		}
+	}
+
+	private synchronized void addToBatch(AicUser user) {
+		batch.put(user.getId(), user);
+		if (batch.size() >= batchSize)
+			writeBatch();
+	}
+
+	private synchronized void writeBatch() {
+		if (batch == null || batch.isEmpty())
+			return;
+		long time = System.currentTimeMillis();
+		try {
+			written += db.upsertUsers(batch.values());
+		} catch (SQLException e) {
+			System.err.println("UserToDBHandler: Failed to write " + batch.size() + " users");
+			e.printStackTrace();
+			failed = true;
+		}
+		writeTime += System.currentTimeMillis() - time;
+		batch.clear();
+	}
+
+	private synchronized void internalHandleTweet(AicUser user) {
 		try {
 
 			this.db.createUser(user);
 		} catch (SQLException e) {
 			e.printStackTrace();
+			failed = true;
 		}
 	}
 }
@@ -0,0 +1,290 @@
+package aic.bigdata.extraction.provider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+import aic.bigdata.extraction.BufferedTweetHandler;
+import aic.bigdata.extraction.TweetDispatcher;
+import aic.bigdata.extraction.TweetHandler;
+import aic.bigdata.extraction.TweetProvider;
+
+/**
+ * Replays tweets from newline delimited JSON files to the handlers, e.g. the
+ * segments written by TweetToJSONHandler or the dumps read by the json
+ * importer. Gzipped files are detected by their header. Empty lines, the
+ * length lines of delimited streams and lines that are no status are
+ * skipped. Directories are read file by file in name order, .index files are
+ * ignored.
+ *
+ * With a parallelism greater than 1 the files are read and parsed by a pool
+ * of threads, one file per thread, and the handlers run behind a
+ * TweetDispatcher. Tweets of different files are then delivered interleaved.
+ * With 1 the files are replayed in order, the same on every run.
+ */
+public class FileTweetProvider implements TweetProvider {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int QUEUE_SIZE = 10000;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private List<String> paths;
+	private int parallelism;
+	private List<TweetHandler> handler = new ArrayList<TweetHandler>();
+	private volatile boolean running;
+	private AtomicLong skipped = new AtomicLong();
+
+	/**
+	 * @param paths
+	 *            files or directories
+	 * @param parallelism
+	 *            number of files read at the same time
+	 */
+	public FileTweetProvider(List<String> paths, int parallelism) {
+		this.paths = paths;
+		this.parallelism = parallelism;
+	}
+
+	@Override
+	public void run() {
+		this.running = true;
+		List<File> files = listFiles();
+		System.out.println("Replaying " + files.size() + " files");
+
+		DateTime begin = new DateTime();
+		long count = parallelism > 1 ? runParallel(files) : runSequential(files);
+
+		Duration diff = new Duration(begin, new DateTime());
+		System.out.println("Replayed " + count + " tweets from " + files.size() + " files (" + skipped.get()
+				+ " lines skipped) in " + diff.getStandardSeconds() + "s, "
+				+ (count / Math.max(1, diff.getStandardSeconds())) + " tweets/s");
+	}
+
+	private long runSequential(List<File> files) {
+		long count = 0;
+		try {
+			for (File file : files) {
+				if (!running)
+					break;
+				BufferedReader reader = open(file);
+				try {
+					String line;
+					while (running && (line = reader.readLine()) != null) {
+						Status status = parse(line);
+						if (status == null)
+							continue;
+						for (TweetHandler t : this.handler) {
+							t.HandleStatusTweet(status, line);
+						}
+						if (++count % 100000 == 0)
+							System.out.println("Current Count: " + count);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		for (TweetHandler t : this.handler) {
+			if (t instanceof BufferedTweetHandler)
+				((BufferedTweetHandler) t).close();
+		}
+		return count;
+	}
+
+	private long runParallel(List<File> files) {
+		long count = 0;
+
+		TweetDispatcher dispatcher = new TweetDispatcher(QUEUE_SIZE);
+		for (TweetHandler t : this.handler) {
+			dispatcher.addTweetHandler(t);
+		}
+		dispatcher.start();
+
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		BlockingQueue<ParsedTweet> queue = new ArrayBlockingQueue<ParsedTweet>(QUEUE_SIZE);
+		try {
+			for (File file : files) {
+				results.add(pool.submit(new SegmentReader(file, queue)));
+			}
+			pool.shutdown();
+
+			int finished = 0;
+			while (running && finished < files.size()) {
+				ParsedTweet t = queue.poll(1, TimeUnit.SECONDS);
+				if (t == null)
+					continue;
+				if (t == ParsedTweet.END) {
+					finished++;
+					continue;
+				}
+				dispatcher.dispatch(t.status, t.message);
+				if (++count % 100000 == 0)
+					System.out.println("Current Count: " + count);
+			}
+
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			running = false;
+			pool.shutdownNow();
+			dispatcher.shutdown();
+		}
+		return count;
+	}
+
+	@Override
+	public void stopProvider() {
+		this.running = false;
+	}
+
+	@Override
+	public void addTweetHandler(TweetHandler t) {
+		this.handler.add(t);
+	}
+
+	private List<File> listFiles() {
+		List<File> files = new ArrayList<File>();
+		for (String path : paths) {
+			File f = new File(path);
+			if (!f.isDirectory()) {
+				files.add(f);
+				continue;
+			}
+			File[] children = f.listFiles();
+			Arrays.sort(children);
+			for (File child : children) {
+				if (child.isFile() && !child.getName().endsWith(".index"))
+					files.add(child);
+			}
+		}
+		return files;
+	}
+
+	private static BufferedReader open(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		in.mark(2);
+		boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+		in.reset();
+		if (gzip)
+			in = new GZIPInputStream(in, BUFFER_SIZE);
+		return new BufferedReader(new InputStreamReader(in, UTF8), BUFFER_SIZE);
+	}
+
+	/**
+	 * @return null, if the line is no status
+	 */
+	private Status parse(String line) {
+		if (line.isEmpty() || line.charAt(0) != '{') {
+			if (!line.trim().isEmpty() && !isNumber(line))
+				skipped.incrementAndGet();
+			return null;
+		}
+		try {
+			Status status = TwitterObjectFactory.createStatus(line);
+			// e.g. delete notices of the stream
+			if (status.getUser() == null) {
+				skipped.incrementAndGet();
+				return null;
+			}
+			return status;
+		} catch (TwitterException e) {
+			skipped.incrementAndGet();
+			return null;
+		}
+	}
+
+	private static boolean isNumber(String line) {
+		String s = line.trim();
+		for (int i = 0; i < s.length(); i++) {
+			if (!Character.isDigit(s.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	private static class ParsedTweet {
+		static final ParsedTweet END = new ParsedTweet(null, null);
+
+		final Status status;
+		final String message;
+
+		ParsedTweet(Status status, String message) {
+			this.status = status;
+			this.message = message;
+		}
+	}
+
+	/**
+	 * Reads and parses one file into the shared queue.
+	 */
+	private class SegmentReader implements Callable<Void> {
+		private File file;
+		private BlockingQueue<ParsedTweet> queue;
+
+		SegmentReader(File file, BlockingQueue<ParsedTweet> queue) {
+			this.file = file;
+			this.queue = queue;
+		}
+
+		@Override
+		public Void call() throws IOException, InterruptedException {
+			try {
+				if (!running)
+					return null;
+				BufferedReader reader = open(file);
+				try {
+					String line;
+					while (running && (line = reader.readLine()) != null) {
+						Status status = parse(line);
+						if (status != null)
+							put(new ParsedTweet(status, line));
+					}
+				} finally {
+					reader.close();
+				}
+			} finally {
+				put(ParsedTweet.END);
+			}
+			return null;
+		}
+
+		private void put(ParsedTweet tweet) throws InterruptedException {
+			while (running && !queue.offer(tweet, 1, TimeUnit.SECONDS)) {
+				// handlers are busy, check for stopProvider() and retry
+			}
+		}
+	}
+}
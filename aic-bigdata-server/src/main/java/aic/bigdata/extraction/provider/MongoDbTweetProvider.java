@@ -3,6 +3,14 @@ package aic.bigdata.extraction.provider;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -11,35 +19,127 @@ import org.joda.time.Minutes;
 import twitter4j.Status;
 import twitter4j.TwitterException;
 import twitter4j.TwitterObjectFactory;
+import aic.bigdata.database.BsonStatus;
 import aic.bigdata.database.MongoDatabase;
+import aic.bigdata.extraction.BufferedTweetHandler;
+import aic.bigdata.extraction.RawTweetHandler;
+import aic.bigdata.extraction.TweetDispatcher;
 import aic.bigdata.extraction.TweetHandler;
 import aic.bigdata.extraction.TweetProvider;
 
 import com.mongodb.DBObject;
 import com.mongodb.DBCursor;
 
+/**
+ * Replays the tweets stored in MongoDB to the handlers.
+ * 
+ * With a parallelism greater than 1 the collection is split into _id ranges
+ * that are read and parsed by one thread each. The handlers then run behind a
+ * TweetDispatcher, so every handler is still called from a single thread. In
+ * ordered mode the ranges are delivered one after the other in _id order,
+ * later ranges are read ahead up to the queue size. Unordered mode delivers
+ * tweets as soon as any range has parsed them.
+ * 
+ * With decodeBson the documents are read with the BsonStatus projection and
+ * wrapped into BsonStatus objects instead of being serialized and parsed as
+ * JSON. There are no raw messages then, so RawTweetHandlers are rejected and
+ * the other handlers get null (e.g. Neo4J, users and topic interests).
+ * 
+ * With checkpoints enabled the tweets are read in _id order. Periodically,
+ * when stopped and at the end, the buffered handlers are flushed and the _id
+ * of the last delivered tweet is saved. The next run with the same checkpoint
+ * name continues after it, so a rerun after a failure or a later replay only
+ * processes the remaining or new tweets. Tweets delivered after the last
+ * checkpoint before a crash are delivered again. Once a flush reports that
+ * tweets could not be written, no further checkpoint is saved in the run, so
+ * the next run delivers them again. If reading a range fails, the replay
+ * stops there and the checkpoint stays at the last tweet delivered before it.
+ */
 public class MongoDbTweetProvider implements TweetProvider {
 
+	private static final int QUEUE_SIZE = 10000;
+
 	private MongoDatabase db;
 	private List<TweetHandler> handler = new ArrayList<TweetHandler>();
-	private boolean running;
+	private volatile boolean running;
+
+	private int parallelism;
+	private boolean ordered;
+	private boolean decodeBson;
+
+	private String checkpoint;
+	private long checkpointInterval;
+	private Object resumeAfter;
+	private Object lastId;
+	private long lastCheckpoint;
+	// tweets were lost in this run, a checkpoint would skip them
+	private boolean failed;
 
 	public MongoDbTweetProvider(MongoDatabase db) {
+		this(db, 1, true, false);
+	}
+
+	/**
+	 * @param parallelism
+	 *            number of _id ranges read concurrently
+	 * @param ordered
+	 *            deliver the tweets in _id order
+	 * @param decodeBson
+	 *            decode the documents directly, without raw messages
+	 */
+	public MongoDbTweetProvider(MongoDatabase db, int parallelism, boolean ordered, boolean decodeBson) {
 		this.db = db;
+		this.parallelism = parallelism;
+		this.ordered = ordered;
+		this.decodeBson = decodeBson;
+	}
+
+	/**
+	 * Saves the position under the given name and resumes from it.
+	 * 
+	 * @param intervalMs
+	 *            time between two checkpoints
+	 */
+	public void enableCheckpoints(String name, long intervalMs) {
+		this.checkpoint = name;
+		this.checkpointInterval = intervalMs;
 	}
 
 	@Override
 	public void run() {
-		DateTime begin = new DateTime();
 		this.running = true;
+		this.failed = false;
+		if (checkpoint != null) {
+			try {
+				resumeAfter = db.readCheckpoint(checkpoint);
+			} catch (UnknownHostException e) {
+				e.printStackTrace();
+				return;
+			}
+			lastId = resumeAfter;
+			lastCheckpoint = System.currentTimeMillis();
+			if (resumeAfter != null)
+				System.out.println("Resuming replay " + checkpoint + " after _id " + resumeAfter);
+		}
+		if (parallelism > 1) {
+			runParallel();
+			return;
+		}
+
+		DateTime begin = new DateTime();
 		long counter = 0;
 		long stepCounter = 0;
 		long stepSize = 1000;
 
 		try {
-			for (DBObject c : db.getCursorForTweets()) {
+			DBCursor cursor = db.getCursorForTweets(resumeAfter, null, checkpoint != null,
+					decodeBson ? BsonStatus.FIELDS : null);
+			for (DBObject c : cursor) {
 				if (!running)
 					break;
+				Object id = c.get("_id");
+				if (id.equals(resumeAfter))
+					continue;
 
 				if (stepCounter >= stepSize) {
 					DateTime end = new DateTime();
@@ -50,18 +150,174 @@ public class MongoDbTweetProvider implements TweetProvider {
 							+ " Minutes:" + diff.getStandardMinutes());
 				}
 
-				String message = c.toString();
+				String message = null;
 				Status status = null;
-				try {
-					status = TwitterObjectFactory.createStatus(message);
-				} catch (TwitterException e) {
-					continue;
+				if (decodeBson) {
+					status = new BsonStatus(c);
+				} else {
+					message = c.toString();
+					try {
+						status = TwitterObjectFactory.createStatus(message);
+					} catch (TwitterException e) {
+						continue;
+					}
 				}
 				for (TweetHandler t : this.handler) {
 					t.HandleStatusTweet(status, message);
 				}
+				lastId = id;
 				stepCounter++;
+
+				if (isCheckpointDue())
+					saveCheckpoint(flushHandlers());
+			}
+		} catch (UnknownHostException e) {
+			e.printStackTrace();
+			failed = true;
+		}
+
+		if (checkpoint != null)
+			saveCheckpoint(flushHandlers());
+		for (TweetHandler t : this.handler) {
+			if (t instanceof BufferedTweetHandler)
+				((BufferedTweetHandler) t).close();
+		}
+	}
+
+	private void runParallel() {
+		DateTime begin = new DateTime();
+		long count = 0;
+
+		TweetDispatcher dispatcher = new TweetDispatcher(QUEUE_SIZE);
+		for (TweetHandler t : this.handler) {
+			dispatcher.addTweetHandler(t);
+		}
+		dispatcher.start();
+
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		try {
+			// checkpoints need the tweets in _id order
+			if (checkpoint != null)
+				ordered = true;
+			List<Object> boundaries = db.getTweetIdBoundaries(parallelism, resumeAfter);
+			int partitions = boundaries.size() + 1;
+			System.out.println("Reading tweets in " + partitions + " ranges, " + (ordered ? "ordered" : "unordered"));
+
+			// ordered: one queue per range, drained in turn; unordered: one shared queue
+			List<BlockingQueue<ParsedTweet>> queues = new ArrayList<BlockingQueue<ParsedTweet>>();
+			BlockingQueue<ParsedTweet> shared = new ArrayBlockingQueue<ParsedTweet>(QUEUE_SIZE);
+			for (int i = 0; i < partitions; i++) {
+				BlockingQueue<ParsedTweet> queue = ordered ? new ArrayBlockingQueue<ParsedTweet>(QUEUE_SIZE) : shared;
+				queues.add(queue);
+				Object from = i == 0 ? resumeAfter : boundaries.get(i - 1);
+				Object to = i == partitions - 1 ? null : boundaries.get(i);
+				results.add(pool.submit(new RangeReader(from, to, queue)));
+			}
+			pool.shutdown();
+
+			int finished = 0;
+			int current = 0;
+			while (running && finished < partitions) {
+				ParsedTweet t = queues.get(current).poll(1, TimeUnit.SECONDS);
+				if (t == null)
+					continue;
+				if (t == ParsedTweet.END) {
+					finished++;
+					if (ordered)
+						current++;
+					continue;
+				}
+				if (t == ParsedTweet.FAILED) {
+					// the rest of the range is missing, later tweets must not be delivered
+					System.err.println("Reading a range of tweets failed, stopping the replay");
+					running = false;
+					break;
+				}
+				if (t.id.equals(resumeAfter))
+					continue;
+				dispatcher.dispatch(t.status, t.message);
+				lastId = t.id;
+				if (isCheckpointDue())
+					saveCheckpoint(dispatcher.flush());
+				if (++count % 1000 == 0) {
+					Duration diff = new Duration(begin, new DateTime());
+					System.out.println("Current Count: " + count + " Minutes:" + diff.getStandardMinutes());
+				}
+			}
+
+			for (Future<Void> result : results) {
+				result.get();
 			}
+		} catch (UnknownHostException e) {
+			e.printStackTrace();
+			failed = true;
+		} catch (ExecutionException e) {
+			// delivery stopped at the failed range, lastId is still in front of it
+			e.getCause().printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			running = false;
+			pool.shutdownNow();
+			if (checkpoint != null) {
+				try {
+					saveCheckpoint(dispatcher.flush());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			dispatcher.shutdown();
+		}
+
+		Duration diff = new Duration(begin, new DateTime());
+		System.out.println("Replayed " + count + " tweets with " + parallelism + " readers in "
+				+ diff.getStandardSeconds() + "s, " + (count / Math.max(1, diff.getStandardSeconds())) + " tweets/s");
+	}
+
+	private boolean isCheckpointDue() {
+		return checkpoint != null && System.currentTimeMillis() - lastCheckpoint > checkpointInterval;
+	}
+
+	/**
+	 * @return false, if a handler could not write everything
+	 */
+	private boolean flushHandlers() {
+		boolean ok = true;
+		for (TweetHandler t : this.handler) {
+			if (!(t instanceof BufferedTweetHandler))
+				continue;
+			try {
+				if (!((BufferedTweetHandler) t).flush())
+					ok = false;
+			} catch (RuntimeException e) {
+				System.err.println("Error flushing " + t.getClass().getSimpleName());
+				e.printStackTrace();
+				ok = false;
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Saves the _id of the last delivered tweet. Handlers must be flushed
+	 * before.
+	 * 
+	 * @param flushed
+	 *            result of the flush, nothing is saved if it failed or tweets
+	 *            were lost before in this run
+	 */
+	private void saveCheckpoint(boolean flushed) {
+		lastCheckpoint = System.currentTimeMillis();
+		if (!flushed && !failed) {
+			System.err.println("Replay " + checkpoint + ": tweets could not be written, keeping the checkpoint at "
+					+ "its last position for the rest of the run");
+			failed = true;
+		}
+		if (failed || lastId == null)
+			return;
+		try {
+			db.writeCheckpoint(checkpoint, lastId);
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
 		}
@@ -72,9 +328,80 @@ public class MongoDbTweetProvider implements TweetProvider {
 		this.running = false;
 	}
 
+	/**
+	 * @throws IllegalArgumentException
+	 *             for a RawTweetHandler with decodeBson
+	 */
 	@Override
 	public void addTweetHandler(TweetHandler t) {
+		if (decodeBson && t instanceof RawTweetHandler)
+			throw new IllegalArgumentException(t.getClass().getSimpleName()
+					+ " needs the raw messages, which mongo.replay.decodeBson does not read");
 		this.handler.add(t);
 	}
 
+	private static class ParsedTweet {
+		static final ParsedTweet END = new ParsedTweet(null, null, null);
+		static final ParsedTweet FAILED = new ParsedTweet(null, null, null);
+
+		final Object id;
+		final Status status;
+		final String message;
+
+		ParsedTweet(Object id, Status status, String message) {
+			this.id = id;
+			this.status = status;
+			this.message = message;
+		}
+	}
+
+	/**
+	 * Reads and parses the tweets of one _id range. Ends with END, or with
+	 * FAILED if the range could not be read completely.
+	 */
+	private class RangeReader implements Callable<Void> {
+		private Object from;
+		private Object to;
+		private BlockingQueue<ParsedTweet> queue;
+
+		RangeReader(Object from, Object to, BlockingQueue<ParsedTweet> queue) {
+			this.from = from;
+			this.to = to;
+			this.queue = queue;
+		}
+
+		@Override
+		public Void call() throws UnknownHostException, InterruptedException {
+			DBCursor cursor = null;
+			boolean complete = false;
+			try {
+				cursor = db.getCursorForTweets(from, to, ordered, decodeBson ? BsonStatus.FIELDS : null);
+				while (running && cursor.hasNext()) {
+					DBObject o = cursor.next();
+					if (decodeBson) {
+						put(new ParsedTweet(o.get("_id"), new BsonStatus(o), null));
+						continue;
+					}
+					String message = o.toString();
+					try {
+						put(new ParsedTweet(o.get("_id"), TwitterObjectFactory.createStatus(message), message));
+					} catch (TwitterException e) {
+						continue;
+					}
+				}
+				complete = true;
+			} finally {
+				if (cursor != null)
+					cursor.close();
+				put(complete ? ParsedTweet.END : ParsedTweet.FAILED);
+			}
+			return null;
+		}
+
+		private void put(ParsedTweet tweet) throws InterruptedException {
+			while (running && !queue.offer(tweet, 1, TimeUnit.SECONDS)) {
+				// handlers are busy, check for stopProvider() and retry
+			}
+		}
+	}
 }
@@ -7,39 +7,39 @@ import java.util.List;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.servlet.ServletContext;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 
 import aic.bigdata.database.GraphDatabase;
 import aic.bigdata.database.MongoDatabase;
 import aic.bigdata.enrichment.AdObject;
 import aic.bigdata.enrichment.TopicObject;
-import aic.bigdata.extraction.ServerConfigBuilder;
 import aic.bigdata.rest.model.AdDTO;
 import aic.bigdata.rest.model.TopicDTO;
-import aic.bigdata.server.ServerConfig;
+import aic.bigdata.server.ServerContext;
 
 @Path("ads")
 public class AdResource {
 
-	private MongoDatabase mongo = null;
-	private ServerConfigBuilder scb = new ServerConfigBuilder();
-	private ServerConfig config = scb.getConfig();
+	@Context
+	private ServletContext servletContext;
 
 	@GET
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Produces(MediaType.APPLICATION_JSON)
 	public List<AdDTO> getAds() {
-
-		if (mongo == null)
-			mongo = new MongoDatabase(config);
+		ServerContext context = ServerContext.get(servletContext);
+		MongoDatabase mongo = context.getMongoDatabase();
+		GraphDatabase graph = context.getGraphDatabase();
 
 		List<AdDTO> ads = new ArrayList<AdDTO>();
 		try {
 			for (AdObject adObject : mongo.getAds()) {
 				AdDTO ad = new AdDTO(adObject);
 				for (TopicDTO t : ad.getTopics()) {
-					long usercount = GraphDatabase.getInstance().getUsersMentioning(t.getName()).size();
+					long usercount = graph.getUsersMentioningCount(t.getName());
 					System.out.println("user mentioning count for topic " + t.getName() + " : " + usercount);
 					t.setMentionings(usercount);
 				}
@@ -56,14 +56,14 @@ public class AdResource {
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Produces(MediaType.APPLICATION_JSON)
 	public List<TopicDTO> getTopics() {
+		ServerContext context = ServerContext.get(servletContext);
+		MongoDatabase mongo = context.getMongoDatabase();
+		GraphDatabase graph = context.getGraphDatabase();
 
 		List<TopicDTO> list = new ArrayList<TopicDTO>();
 		try {
-			if (mongo == null)
-				mongo = new MongoDatabase(config);
-
 			for (TopicObject o : mongo.getTopics()) {
-				TopicDTO t = new TopicDTO(o.getId(), GraphDatabase.getInstance().getUsersMentioning(o.getId()).size());
+				TopicDTO t = new TopicDTO(o.getId(), graph.getUsersMentioningCount(o.getId()));
 				list.add(t);
 			}
 		} catch (UnknownHostException e) {
@@ -4,54 +4,77 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.net.UnknownHostException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
+import javax.servlet.ServletContext;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 
-import aic.bigdata.database.GraphDatabase;
-import aic.bigdata.database.MongoDatabase;
 import aic.bigdata.database.SqlDatabase;
 import aic.bigdata.database.model.AicUser;
-import aic.bigdata.extraction.ServerConfigBuilder;
 import aic.bigdata.rest.model.Connections;
 import aic.bigdata.rest.model.SigmaEdge;
 import aic.bigdata.rest.model.SigmaNode;
-import aic.bigdata.server.ServerConfig;
+import aic.bigdata.server.ServerContext;
 
 @Path("connections")
 public class ConnectionResource {
 
+	@Context
+	private ServletContext servletContext;
+
 	@GET
 	@Path("topics")
 	@Produces(MediaType.APPLICATION_JSON)
 	public List<String> getTopicNames() throws UnknownHostException {
-		ServerConfigBuilder scb = new ServerConfigBuilder();
-		ServerConfig config = scb.getConfig();
-		MongoDatabase mdb = new MongoDatabase(config);
-
-		return mdb.getTopicNames();
+		return ServerContext.get(servletContext).getMongoDatabase().getTopicNames();
 	}
 
+	/**
+	 * Users mentioning the topic, ordered by id. Without a size all users are
+	 * returned, otherwise the given page, so the graph can be loaded
+	 * incrementally. The total size is the number of all users mentioning the
+	 * topic.
+	 */
 	@GET
 	@Path("topics/{topic}/users")
 	@Produces(MediaType.APPLICATION_JSON)
-	public Connections getTopicUsers(@PathParam("topic") String topicName) throws UnknownHostException, SQLException {
-		ServerConfigBuilder scb = new ServerConfigBuilder();
-		ServerConfig config = scb.getConfig();
-
-		SqlDatabase sqldb = new SqlDatabase(config);
+	public Connections getTopicUsers(@PathParam("topic") String topicName, @QueryParam("size") int size,
+			@QueryParam("page") int page) throws UnknownHostException, SQLException {
+		ServerContext context = ServerContext.get(servletContext);
+		SqlDatabase sqldb = context.getSqlDatabase();
 
 		Connections con = new Connections();
-		Set<Long> usersMentioning = GraphDatabase.getInstance().getUsersMentioning(topicName);
+		List<Long> usersMentioning = new ArrayList<Long>(context.getGraphDatabase().getUsersMentioning(topicName));
+		Collections.sort(usersMentioning);
+
+		int from = 0;
+		int to = usersMentioning.size();
+		if (size > 0) {
+			from = (int) Math.min((long) page * size, to);
+			to = (int) Math.min((long) from + size, to);
+		}
+		List<Long> ids = usersMentioning.subList(from, to);
+
+		Map<Long, AicUser> users = new HashMap<Long, AicUser>();
+		for (AicUser usr : sqldb.getUsersByIds(ids, "name")) {
+			users.put(usr.getId(), usr);
+		}
+
 		String baseEdgeName = "e";
-		long edgeCounter = 0;
-		for (Long id : usersMentioning) {
-			AicUser usr = sqldb.getUserById(id);
+		// edge names stay unique across pages
+		long edgeCounter = from;
+		for (Long id : ids) {
+			AicUser usr = users.get(id);
 			if (usr == null) {
 				System.err.println(id + " UserId not found!");
 			} else {
@@ -67,7 +90,7 @@ public class ConnectionResource {
 		}
 		con.getNodes().add(new SigmaNode(topicName, topicName, 5, 5, 2));
 
-		con.setTotalSize(1);
+		con.setTotalSize(usersMentioning.size());
 		return con;
 	}
 }
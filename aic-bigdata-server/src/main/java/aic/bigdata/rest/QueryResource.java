@@ -5,12 +5,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
+import javax.servlet.ServletContext;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 
 import org.apache.commons.lang3.StringUtils;
@@ -18,8 +20,7 @@ import org.apache.commons.lang3.StringUtils;
 import aic.bigdata.database.SqlDatabase;
 import aic.bigdata.database.model.AicUser;
 import aic.bigdata.enrichment.AdObject;
-import aic.bigdata.extraction.ServerConfigBuilder;
-import aic.bigdata.server.ServerConfig;
+import aic.bigdata.server.ServerContext;
 
 /*
  * 1. Which users are the most inﬂuential persons in your data set? Inﬂuential persons do not only have many followers, 
@@ -41,7 +42,8 @@ import aic.bigdata.server.ServerConfig;
 @Path("queries")
 public class QueryResource {
 
-	ServerConfig config = new ServerConfigBuilder().getConfig();
+	@Context
+	private ServletContext servletContext;
 
 	private List<AicUser> getDummyAicUserData() {
 		try {
@@ -49,7 +51,7 @@ public class QueryResource {
 			Random rnd = new Random();
 			int x = rnd.nextInt(10) + 10;
 
-			SqlDatabase db = new SqlDatabase(config);
+			SqlDatabase db = ServerContext.get(servletContext).getSqlDatabase();
 			List<AicUser> users = db.getUsers(x, 10);
 			return users;
 		} catch (SQLException e) {
@@ -1,22 +1,27 @@
 package aic.bigdata.rest;
 
+import javax.servlet.ServletContext;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 
 import aic.bigdata.rest.model.ServiceStatus;
 import com.sun.jersey.spi.resource.Singleton;
 
-import aic.bigdata.extraction.ServerConfigBuilder;
 import aic.bigdata.server.ServerConfig;
+import aic.bigdata.server.ServerContext;
 import aic.bigdata.server.TaskManager;
 
 @Path("service")
 @Singleton
 public class ServiceResource {
 
+	@Context
+	private ServletContext servletContext;
+
 	private TaskManager sm = null;
 	private ServiceStatus status = new ServiceStatus();
 	
@@ -37,7 +42,7 @@ public class ServiceResource {
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	public ServiceStatus commandService(@QueryParam("command") String command) {
-		ServerConfig cf = new ServerConfigBuilder().getConfig();
+		ServerConfig cf = ServerContext.get(servletContext).getConfig();
 		switch (command.toLowerCase()) {
 		case "start":
 			getTaskManager().startService(cf);
@@ -5,41 +5,47 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import javax.servlet.ServletContext;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 
-import aic.bigdata.database.GraphDatabase;
-import aic.bigdata.database.MongoDatabase;
 import aic.bigdata.database.SqlDatabase;
 import aic.bigdata.database.model.AicUser;
-import aic.bigdata.extraction.ServerConfigBuilder;
 import aic.bigdata.rest.model.Connections;
 import aic.bigdata.rest.model.ResultEntry;
 import aic.bigdata.rest.model.ResultPage;
 import aic.bigdata.rest.model.SigmaNode;
-import aic.bigdata.server.ServerConfig;
+import aic.bigdata.server.ServerContext;
 
 @Path("users")
 public class UserResource {
 
-	MongoDatabase mongo = null;
+	@Context
+	private ServletContext servletContext;
 
+	/**
+	 * Users ordered by name. Pass name and id of the last user as afterName and
+	 * afterId to get the next page, page is only supported for older clients.
+	 * The total size is approximate.
+	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
-	public ResultPage getUsers(@QueryParam("size") int size, @QueryParam("page") int page) {
-
-		ServerConfigBuilder scb = new ServerConfigBuilder();
-		ServerConfig config = scb.getConfig();
-
+	public ResultPage getUsers(@QueryParam("size") int size, @QueryParam("page") int page,
+			@QueryParam("afterName") String afterName, @QueryParam("afterId") long afterId) {
 		List<AicUser> list = null;
 		try {
-			SqlDatabase sqldb = new SqlDatabase(config);
-			list = sqldb.getUsers(page, size);
+			SqlDatabase sqldb = ServerContext.get(servletContext).getSqlDatabase();
+			if (afterName != null) {
+				list = sqldb.getUsersAfter(afterName, afterId, size);
+			} else {
+				list = sqldb.getUsers(page, size);
+			}
 			List<ResultEntry> result = new ArrayList<ResultEntry>();
 			for (AicUser user : list) {
 				ResultEntry entry = new ResultEntry();
@@ -50,7 +56,7 @@ public class UserResource {
 
 			ResultPage resultPage = new ResultPage();
 			resultPage.setResult(result);
-			resultPage.setTotalSize(sqldb.getUserCount());
+			resultPage.setTotalSize(sqldb.getApproximateUserCount());
 			return resultPage;
 		} catch (SQLException e) {
 			// TODO Auto-generated catch block
@@ -65,15 +71,8 @@ public class UserResource {
 	@Produces(MediaType.APPLICATION_JSON)
 	public Connections getConnections(@PathParam("userId") long userId) {
 		System.out.println("userId: " + userId);
-		ServerConfigBuilder scb = new ServerConfigBuilder();
-		ServerConfig config = scb.getConfig();
-
-		if (mongo == null)
-			mongo = new MongoDatabase(config);
 
-		// FIXME CREATE NEO4J DB Instance and get Connections
-		// MongoDatabase mongo = new MongoDatabase(config);
-		Set<String> mentionedTopics = GraphDatabase.getInstance().getMentionedTopics(userId);
+		Set<String> mentionedTopics = ServerContext.get(servletContext).getGraphDatabase().getMentionedTopics(userId);
 
 		Connections con = new Connections();
 		for (String string : mentionedTopics) {
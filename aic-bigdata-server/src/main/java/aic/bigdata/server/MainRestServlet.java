@@ -12,9 +12,18 @@ public class MainRestServlet extends ServletContainer {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	private ServerContext context;
+
 	@Override
 	public void init(ServletConfig config) throws ServletException {
-		// TODO Auto-generated method stub
+		// resources look up the shared clients, so create them first
+		try {
+			context = new ServerContext();
+		} catch (Exception e) {
+			throw new ServletException("could not create database clients", e);
+		}
+		context.register(config.getServletContext());
+
 		super.init(config);
 		
 		//ServerConfig cf = new ServerConfigBuilder().getConfig();
@@ -24,7 +33,10 @@ public class MainRestServlet extends ServletContainer {
 	@Override
 	public void destroy() {
 //		TaskManager.stopServices();
-		// TODO Auto-generated method stub
 		super.destroy();
+		if (context != null) {
+			context.unregister(getServletContext());
+			context.close();
+		}
 	}
 }
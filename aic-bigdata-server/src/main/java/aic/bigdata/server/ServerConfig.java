@@ -69,6 +69,34 @@ public class ServerConfig {
 		return new Integer(count);
 	}
 
+	// aic.bigdata.stream.handlerQueueSize
+	public Integer getHandlerQueueSize() {
+		String size = server.getProperty("aic.bigdata.stream.handlerQueueSize");
+		if (StringUtils.isEmpty(size)) {
+			return 10000;
+		}
+		return new Integer(size);
+	}
+
+	// aic.bigdata.analysis.workers
+	public Integer getAnalysisWorkers() {
+		String workers = server.getProperty("aic.bigdata.analysis.workers");
+		if (StringUtils.isEmpty(workers)) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return new Integer(workers);
+	}
+
+	// aic.bigdata.analysis.singlePass
+	public Boolean isAnalysisSinglePass() {
+		return new Boolean(server.getProperty("aic.bigdata.analysis.singlePass"));
+	}
+
+	// aic.bigdata.stream.topicInterests
+	public Boolean isStreamTopicInterests() {
+		return new Boolean(server.getProperty("aic.bigdata.stream.topicInterests"));
+	}
+
 	// aic.bigdata.stream.addDBUsers
 	public Boolean isAddDBUsers() {
 		return new Boolean(server.getProperty("aic.bigdata.stream.addDBUsers"));
@@ -143,6 +171,60 @@ public class ServerConfig {
 		return tmp;
 	}
 
+	// aic.bigdata.replay.files
+	public List<String> getReplayFiles() {
+		String files = server.getProperty("aic.bigdata.replay.files");
+		if (StringUtils.isEmpty(files)) {
+			return new ArrayList<String>();
+		}
+		return Lists.newArrayList(files.split(","));
+	}
+
+	// aic.bigdata.replay.parallelism
+	public Integer getReplayParallelism() {
+		String parallelism = server.getProperty("aic.bigdata.replay.parallelism");
+		if (StringUtils.isEmpty(parallelism)) {
+			return 1;
+		}
+		return new Integer(parallelism);
+	}
+
+	// aic.bigdata.stream.output.maxBytes
+	public Long getOutputMaxBytes() {
+		String bytes = server.getProperty("aic.bigdata.stream.output.maxBytes");
+		if (StringUtils.isEmpty(bytes)) {
+			return 0L;
+		}
+		return new Long(bytes);
+	}
+
+	// aic.bigdata.stream.output.maxAgeMs
+	public Long getOutputMaxAge() {
+		String age = server.getProperty("aic.bigdata.stream.output.maxAgeMs");
+		if (StringUtils.isEmpty(age)) {
+			return 0L;
+		}
+		return new Long(age);
+	}
+
+	// aic.bigdata.stream.output.gzip
+	public Boolean isOutputGzip() {
+		String gzip = server.getProperty("aic.bigdata.stream.output.gzip");
+		if (StringUtils.isEmpty(gzip)) {
+			return false;
+		}
+		return new Boolean(gzip);
+	}
+
+	// aic.bigdata.stream.output.flushIntervalMs
+	public Long getOutputFlushInterval() {
+		String interval = server.getProperty("aic.bigdata.stream.output.flushIntervalMs");
+		if (StringUtils.isEmpty(interval)) {
+			return 0L;
+		}
+		return new Long(interval);
+	}
+
 	public void setMongo(Properties propsMongo) {
 		this.mongo = propsMongo;
 	}
@@ -162,11 +244,116 @@ public class ServerConfig {
 	public String getMongoCollectionAds() {
 		return mongo.getProperty("mongo.collection.ads");
 	}
+
+	// mongo.collection.checkpoints
+	public String getMongoCollectionCheckpoints() {
+		String name = mongo.getProperty("mongo.collection.checkpoints");
+		if (StringUtils.isEmpty(name)) {
+			return "Checkpoints";
+		}
+		return name;
+	}
+
+	// mongo.replay.checkpoint
+	public String getMongoReplayCheckpoint() {
+		return mongo.getProperty("mongo.replay.checkpoint");
+	}
+
+	// mongo.replay.checkpointIntervalMs
+	public Long getMongoReplayCheckpointInterval() {
+		String interval = mongo.getProperty("mongo.replay.checkpointIntervalMs");
+		if (StringUtils.isEmpty(interval)) {
+			return 60000L;
+		}
+		return new Long(interval);
+	}
 	
 	public String getMongoCollectionTopics() {
 		return mongo.getProperty("mongo.collection.topics");
 	}
 
+	// mongo.replay.parallelism
+	public Integer getMongoReplayParallelism() {
+		String parallelism = mongo.getProperty("mongo.replay.parallelism");
+		if (StringUtils.isEmpty(parallelism)) {
+			return 1;
+		}
+		return new Integer(parallelism);
+	}
+
+	// mongo.replay.ordered
+	public Boolean isMongoReplayOrdered() {
+		String ordered = mongo.getProperty("mongo.replay.ordered");
+		if (StringUtils.isEmpty(ordered)) {
+			return true;
+		}
+		return new Boolean(ordered);
+	}
+
+	// mongo.replay.decodeBson
+	public Boolean isMongoReplayDecodeBson() {
+		return new Boolean(mongo.getProperty("mongo.replay.decodeBson"));
+	}
+
+	// mongo.bulk.size
+	public Integer getMongoBulkSize() {
+		String size = mongo.getProperty("mongo.bulk.size");
+		if (StringUtils.isEmpty(size)) {
+			return 1;
+		}
+		return new Integer(size);
+	}
+
+	// mongo.dedup.bloom
+	public Boolean isMongoDedupBloom() {
+		String bloom = mongo.getProperty("mongo.dedup.bloom");
+		if (StringUtils.isEmpty(bloom)) {
+			return false;
+		}
+		return new Boolean(bloom);
+	}
+
+	// mongo.dedup.expectedTweets
+	public Long getMongoDedupExpectedTweets() {
+		String expected = mongo.getProperty("mongo.dedup.expectedTweets");
+		if (StringUtils.isEmpty(expected)) {
+			return 10000000L;
+		}
+		return new Long(expected);
+	}
+
+	// mongo.dedup.falsePositiveRate
+	public Double getMongoDedupFalsePositiveRate() {
+		String rate = mongo.getProperty("mongo.dedup.falsePositiveRate");
+		if (StringUtils.isEmpty(rate)) {
+			return 0.01;
+		}
+		return new Double(rate);
+	}
+
+	// mongo.dedup.maxBytes
+	public Long getMongoDedupMaxBytes() {
+		String bytes = mongo.getProperty("mongo.dedup.maxBytes");
+		if (StringUtils.isEmpty(bytes)) {
+			return 16777216L;
+		}
+		return new Long(bytes);
+	}
+
+	// mongo.dedup.file
+	public String getMongoDedupFile() {
+		return mongo.getProperty("mongo.dedup.file");
+	}
+
+	// mongo.bulk.flushIntervalMs
+	public Long getMongoBulkFlushInterval() {
+		String interval = mongo.getProperty("mongo.bulk.flushIntervalMs");
+		if (StringUtils.isEmpty(interval)) {
+			return 0L;
+		}
+		return new Long(interval);
+	}
+
 	private Configuration getConfigForTwitter4J() {
 		ConfigurationBuilder builder = new ConfigurationBuilder();
 		builder.setOAuthConsumerKey(twitter.getProperty("oauth.consumerKey"));
@@ -204,6 +391,38 @@ public class ServerConfig {
 		return this.getNeo4JDbPath().concat(this.getNeo4JDbName());
 	}
 
+	// neo4j.mentionsCountTtlMs
+	public Long getNeo4JMentionsCountTtl() {
+		String ttl = neo4j.getProperty("neo4j.mentionsCountTtlMs");
+		if (StringUtils.isEmpty(ttl)) {
+			return 60000L;
+		}
+		return new Long(ttl);
+	}
+
+	// neo4j.batchImport
+	public Boolean isNeo4JBatchImport() {
+		return new Boolean(neo4j.getProperty("neo4j.batchImport"));
+	}
+
+	// neo4j.batch.size
+	public Integer getNeo4JBatchSize() {
+		String size = neo4j.getProperty("neo4j.batch.size");
+		if (StringUtils.isEmpty(size)) {
+			return 1;
+		}
+		return new Integer(size);
+	}
+
+	// neo4j.batch.flushIntervalMs
+	public Long getNeo4JBatchFlushInterval() {
+		String interval = neo4j.getProperty("neo4j.batch.flushIntervalMs");
+		if (StringUtils.isEmpty(interval)) {
+			return 0L;
+		}
+		return new Long(interval);
+	}
+
 	public Properties getSql() {
 		return sql;
 	}
@@ -220,6 +439,33 @@ public class ServerConfig {
 		return new Boolean(sql.getProperty("sql.cleanOnStart"));
 	}
 	
+	// sql.batch.size
+	public Integer getSqlBatchSize() {
+		String size = sql.getProperty("sql.batch.size");
+		if (StringUtils.isEmpty(size)) {
+			return 1;
+		}
+		return new Integer(size);
+	}
+
+	// sql.batch.flushIntervalMs
+	public Long getSqlBatchFlushInterval() {
+		String interval = sql.getProperty("sql.batch.flushIntervalMs");
+		if (StringUtils.isEmpty(interval)) {
+			return 0L;
+		}
+		return new Long(interval);
+	}
+
+	// sql.pool.size
+	public Integer getSqlPoolSize() {
+		String prop = sql.getProperty("sql.pool.size");
+		if (StringUtils.isEmpty(prop)) {
+			return 10;
+		}
+		return new Integer(prop);
+	}
+
 	public String getSqlStartScriptPath(){
 		return sql.getProperty("sql.create");
 	}
@@ -0,0 +1,88 @@
+package aic.bigdata.server;
+
+import java.net.UnknownHostException;
+import java.sql.SQLException;
+
+import javax.servlet.ServletContext;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import aic.bigdata.database.GraphDatabase;
+import aic.bigdata.database.MongoDatabase;
+import aic.bigdata.database.SqlDatabase;
+import aic.bigdata.extraction.ServerConfigBuilder;
+
+import com.mongodb.MongoClient;
+
+/**
+ * Database clients shared by all REST resources. Created once when the
+ * MainRestServlet starts and stored as servlet context attribute, so requests
+ * neither re-read the properties files nor open new connections.
+ */
+public class ServerContext {
+
+	private static final String ATTRIBUTE = ServerContext.class.getName();
+
+	private ServerConfig config;
+	private JdbcConnectionPool sqlPool;
+	private SqlDatabase sqlDatabase;
+	private MongoClient mongoClient;
+	private MongoDatabase mongoDatabase;
+	private GraphDatabase graphDatabase;
+
+	public ServerContext() throws SQLException, UnknownHostException {
+		this.config = new ServerConfigBuilder().getConfig();
+		try {
+			this.sqlPool = SqlDatabase.createConnectionPool(config);
+			this.sqlDatabase = new SqlDatabase(config, sqlPool);
+			this.mongoClient = new MongoClient(); // use local started one
+			this.mongoDatabase = new MongoDatabase(config, mongoClient);
+			this.graphDatabase = GraphDatabase.getInstance();
+		} catch (Exception e) {
+			close();
+			throw e;
+		}
+	}
+
+	public static ServerContext get(ServletContext servletContext) {
+		return (ServerContext) servletContext.getAttribute(ATTRIBUTE);
+	}
+
+	public void register(ServletContext servletContext) {
+		servletContext.setAttribute(ATTRIBUTE, this);
+	}
+
+	public void unregister(ServletContext servletContext) {
+		servletContext.removeAttribute(ATTRIBUTE);
+	}
+
+	public ServerConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return database backed by a connection pool, safe to use concurrently
+	 */
+	public SqlDatabase getSqlDatabase() {
+		return sqlDatabase;
+	}
+
+	public MongoDatabase getMongoDatabase() {
+		return mongoDatabase;
+	}
+
+	public GraphDatabase getGraphDatabase() {
+		return graphDatabase;
+	}
+
+	/**
+	 * Closes the connection pool and the mongo client. The graph database is
+	 * shut down by its own shutdown hook.
+	 */
+	public void close() {
+		if (sqlPool != null)
+			sqlPool.dispose();
+		if (mongoClient != null)
+			mongoClient.close();
+	}
+}
@@ -1,12 +1,16 @@
 package aic.bigdata.server;
 
+import java.net.UnknownHostException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import org.apache.commons.lang3.StringUtils;
+
 import aic.bigdata.database.GraphDatabase;
 import aic.bigdata.database.MongoDatabase;
 import aic.bigdata.enrichment.TopicAnalyzer;
 import aic.bigdata.extraction.TweetHandler;
+import aic.bigdata.extraction.handler.TopicInterestHandler;
 import aic.bigdata.extraction.handler.TweetToConsolePrinter;
 import aic.bigdata.extraction.handler.TweetToMongoDBHandler;
 import aic.bigdata.extraction.handler.TweetToNeo4JHandler;
@@ -33,6 +37,17 @@ public class TaskManager {
 		//streamJob.addTweetHandler(new TweetToMongoDBHandler(mongo));
 		//streamJob.addTweetHandler(new UserToMongoDBHandler(mongo));
 		// job.addTweetHandler(new TweetToNeo4JHandler());
+		if (config.isStreamTopicInterests()) {
+			try {
+				// same window as TopicAnalyzer, new interests are written every 10s, users
+				// idle for a day are dropped
+				streamJob.addTweetHandler(new TopicInterestHandler(GraphDatabase.getInstance(), mongo
+						.readAllTopicsInLowercase(), 100, 10000, 24 * 60 * 60 * 1000L));
+			} catch (UnknownHostException e) {
+				System.err.println("could not read topics, topic interests are not updated");
+				e.printStackTrace();
+			}
+		}
 
 		if (config.getStreamOnStartup()) {
 			if(executor.isShutdown())
@@ -58,7 +73,10 @@ public class TaskManager {
 	public void startExtraction(ServerConfig cf){
 
 		MongoDatabase b = new MongoDatabase(cf);
-		extractionJob = new MongoDbTweetProvider(b);
+		extractionJob = new MongoDbTweetProvider(b, cf.getMongoReplayParallelism(),
+				cf.isMongoReplayOrdered(), cf.isMongoReplayDecodeBson());
+		if (!StringUtils.isEmpty(cf.getMongoReplayCheckpoint()))
+			extractionJob.enableCheckpoints(cf.getMongoReplayCheckpoint(), cf.getMongoReplayCheckpointInterval());
 
 		TweetHandler handler = new TweetToNeo4JHandler(cf, GraphDatabase.getInstance());
 		extractionJob.addTweetHandler(handler);
@@ -1,18 +1,17 @@
 package aic.bigdata.server;
 
-import java.net.UnknownHostException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 
-import twitter4j.Status;
-import twitter4j.TwitterException;
-import twitter4j.TwitterObjectFactory;
 import aic.bigdata.database.SqlDatabase;
+import aic.bigdata.database.UserIdIterator;
+import aic.bigdata.extraction.TweetDispatcher;
 import aic.bigdata.extraction.TweetHandler;
 import aic.bigdata.extraction.TweetProvider;
 
@@ -79,11 +78,14 @@ public class TwitterStreamJob implements TweetProvider {
 
 		// read from additional users form sqldb
 		if (config.isAddDBUsers()) {
-			List<Long> users;
 			try {
 				SqlDatabase sqldb = new SqlDatabase(config);
-				users = sqldb.getUserIds(config.getMaxFollowersFromDB());
-				followings.addAll(users);
+				// the most followed users first, the stream accepts only a limited number
+				try (UserIdIterator users = sqldb.iterateUserIds(config.getMaxFollowersFromDB(), true)) {
+					while (users.hasNext()) {
+						followings.add(users.next());
+					}
+				}
 			} catch (SQLException e) {
 				e.printStackTrace();
 			}
@@ -122,35 +124,30 @@ public class TwitterStreamJob implements TweetProvider {
 		client = createStreamClient(msgQueue);
 		client.connect();
 
+		TweetDispatcher dispatcher = new TweetDispatcher(config.getHandlerQueueSize());
+		for (TweetHandler t : this.tweethandlers) {
+			dispatcher.addTweetHandler(t);
+		}
+		dispatcher.start();
+
 		setCounter(0);
 
-		// on a different thread, or multiple different threads....
 		while (!client.isDone() && getCounter() <= config.getMaxTweetCount()) {
-			String msg;
 			try {
-				// FIXME TWEET CODE!
-				msg = msgQueue.take();
-				for (TweetHandler t : this.tweethandlers) {
-					try {
-
-						Status status = TwitterObjectFactory.createStatus(msg);
-						t.HandleStatusTweet(status, msg);
-						counter++;
-					} catch (TwitterException e) {
-						System.err.println("Error creating Status Object: " + msg);
-						e.printStackTrace();
-					} catch (UnknownHostException e) {
-						System.err.println("Error with mongoDB/collections: " + msg);
-						e.printStackTrace();
-					}
-				}
-
+				// poll instead of take, so stopProvider() is noticed
+				String msg = msgQueue.poll(1, TimeUnit.SECONDS);
+				if (msg == null)
+					continue;
+				if (dispatcher.dispatch(msg))
+					counter++;
 			} catch (InterruptedException e) {
 				e.printStackTrace();
+				break;
 			}
 
 		}
 		client.stop();
+		dispatcher.shutdown();
 	}
 
 	@Override
@@ -2,6 +2,8 @@ package aic.bigdata.stats;
 
 import java.net.UnknownHostException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import twitter4j.TwitterException;
 import twitter4j.TwitterObjectFactory;
@@ -31,21 +33,31 @@ public class UserConverter {
 
 				DBCursor cur = mongoDatabase.getCursorForUsers();
 				int max = cur.size();
-				int step = max / 10;
+				int step = Math.max(1, max / 10);
 				int count = 0;
+				int batchSize = config.getSqlBatchSize();
+				List<AicUser> batch = new ArrayList<AicUser>(batchSize);
+				long time = System.currentTimeMillis();
 
 				System.out.println("Current user count: " + db.getUserCount());
 				System.out.print("Progress: ");
 				while (cur.hasNext()) {
 					DBObject o = cur.next();
 					User usr = TwitterObjectFactory.createUser(o.toString());
-					AicUser x = new AicUser(usr);
-					db.createUser(x);
+					batch.add(new AicUser(usr));
+					if (batch.size() >= batchSize) {
+						db.upsertUsers(batch);
+						batch.clear();
+					}
 					count++;
 					if (count % step == 0)
 						System.out.print("#");
 				}
+				db.upsertUsers(batch);
 				System.out.println();
+				long seconds = Math.max(1, (System.currentTimeMillis() - time) / 1000);
+				System.out.println("Converted " + count + " users in " + seconds + "s, " + (count / seconds)
+						+ " rows/s");
 				System.out.println("Current user count: " + db.getUserCount());
 
 			} catch (UnknownHostException | TwitterException e) {